@@ -1,6 +1,8 @@
 package ch.unibas.medizin.depot;
 
+import ch.unibas.medizin.depot.config.AuditLogProperties;
 import ch.unibas.medizin.depot.config.DepotProperties;
+import ch.unibas.medizin.depot.config.HotFileCacheProperties;
 import ch.unibas.medizin.depot.config.RateLimitProperties;
 import ch.unibas.medizin.depot.config.TikaRuntimeHints;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
@@ -16,7 +18,7 @@ import org.springframework.context.annotation.ImportRuntimeHints;
 
 import java.util.Locale;
 
-@EnableConfigurationProperties({DepotProperties.class, RateLimitProperties.class})
+@EnableConfigurationProperties({DepotProperties.class, RateLimitProperties.class, AuditLogProperties.class, HotFileCacheProperties.class})
 @SpringBootApplication(exclude = {UserDetailsServiceAutoConfiguration.class})
 @OpenAPIDefinition(info = @Info(title = "Depot API", version = "1.0", description = "Secure file storage API"))
 @SecurityScheme(name = "depotapi", scheme = "bearer", type = SecuritySchemeType.HTTP, in = SecuritySchemeIn.HEADER)
@@ -2,18 +2,35 @@ package ch.unibas.medizin.depot.api;
 
 import ch.unibas.medizin.depot.dto.AccessTokenRequestDto;
 import ch.unibas.medizin.depot.dto.AccessTokenResponseDto;
+import ch.unibas.medizin.depot.dto.AuditQueryRequestDto;
+import ch.unibas.medizin.depot.dto.AuditStatsDto;
+import ch.unibas.medizin.depot.dto.AuditStatsRequestDto;
+import ch.unibas.medizin.depot.dto.BulkTokenRequestDto;
+import ch.unibas.medizin.depot.dto.BulkTokenResponseDto;
+import ch.unibas.medizin.depot.dto.RevokeRequestDto;
 import ch.unibas.medizin.depot.exception.InvalidRequestException;
 import ch.unibas.medizin.depot.service.AccessTokenService;
+import ch.unibas.medizin.depot.service.AuditService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Validator;
 import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 @NullMarked
 @RestController
@@ -23,11 +40,21 @@ public class AdminController {
 
     private final AccessTokenService accessTokenService;
 
+    private final AuditService auditService;
+
     private final Validator validator;
 
-    public AdminController(AccessTokenService accessTokenService, Validator validator) {
+    private final JsonMapper jsonMapper;
+
+    private static final String IMAGE_SVG_VALUE = "image/svg+xml";
+
+    private static final MediaType IMAGE_SVG = MediaType.parseMediaType(IMAGE_SVG_VALUE);
+
+    public AdminController(AccessTokenService accessTokenService, AuditService auditService, Validator validator, JsonMapper jsonMapper) {
         this.accessTokenService = accessTokenService;
+        this.auditService = auditService;
         this.validator = validator;
+        this.jsonMapper = jsonMapper;
     }
 
     @PostMapping("/register")
@@ -43,16 +70,112 @@ public class AdminController {
         return ResponseEntity.ok(accessTokenResponseDto);
     }
 
-    @PostMapping(value = "/qr", produces = MediaType.IMAGE_PNG_VALUE)
-    @Operation(summary = "Retrieve a QR code which provides access to the given realm")
-    public byte[] qr(@RequestBody final AccessTokenRequestDto accessTokenRequestDto) {
+    @PostMapping(value = "/qr", produces = {MediaType.IMAGE_PNG_VALUE, IMAGE_SVG_VALUE})
+    @Operation(summary = "Retrieve a QR code which provides access to the given realm, as PNG or, if accepted, as SVG")
+    public ResponseEntity<byte[]> qr(@RequestBody final AccessTokenRequestDto accessTokenRequestDto,
+                                     @RequestHeader(value = HttpHeaders.ACCEPT, required = false) @Nullable final String accept) {
         final var violations = validator.validate(accessTokenRequestDto);
 
         for (final var violation : violations) {
             throw new InvalidRequestException(violation.getPropertyPath().toString(), violation.getInvalidValue().toString(), violation.getMessage());
         }
 
-        return accessTokenService.requestTokenQr(accessTokenRequestDto);
+        if (prefersSvg(accept)) {
+            final var svg = accessTokenService.requestTokenQrSvg(accessTokenRequestDto);
+            return ResponseEntity.ok().contentType(IMAGE_SVG).body(svg.getBytes(StandardCharsets.UTF_8));
+        }
+        return ResponseEntity.ok().contentType(MediaType.IMAGE_PNG).body(accessTokenService.requestTokenQr(accessTokenRequestDto));
+    }
+
+    @PostMapping("/register/bulk")
+    @Operation(summary = "Retrieve tokens for many realms and subjects at once, checking the password only once")
+    public ResponseEntity<BulkTokenResponseDto> registerBulk(@RequestBody final BulkTokenRequestDto bulkTokenRequestDto) {
+        final var violations = validator.validate(bulkTokenRequestDto);
+
+        for (final var violation : violations) {
+            throw new InvalidRequestException(violation.getPropertyPath().toString(), String.valueOf(violation.getInvalidValue()), violation.getMessage());
+        }
+
+        return ResponseEntity.ok(accessTokenService.requestTokenStrings(bulkTokenRequestDto));
+    }
+
+    @PostMapping("/qr/bulk")
+    @Operation(summary = "Retrieve a ZIP archive with a QR code per token, issued for many realms and subjects at once")
+    public void qrBulk(@RequestBody final BulkTokenRequestDto bulkTokenRequestDto, final HttpServletResponse response) throws IOException {
+        final var violations = validator.validate(bulkTokenRequestDto);
+
+        for (final var violation : violations) {
+            throw new InvalidRequestException(violation.getPropertyPath().toString(), String.valueOf(violation.getInvalidValue()), violation.getMessage());
+        }
+
+        accessTokenService.requestTokenQrs(bulkTokenRequestDto, filename -> {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("application/zip");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString());
+            return response.getOutputStream();
+        });
+        response.flushBuffer();
+    }
+
+    @PostMapping("/revoke")
+    @Operation(summary = "Revoke a token until it expires")
+    public ResponseEntity<Void> revoke(@RequestBody final RevokeRequestDto revokeRequestDto) {
+        final var violations = validator.validate(revokeRequestDto);
+
+        for (final var violation : violations) {
+            throw new InvalidRequestException(violation.getPropertyPath().toString(), String.valueOf(violation.getInvalidValue()), violation.getMessage());
+        }
+
+        accessTokenService.revoke(revokeRequestDto);
+        return ResponseEntity.ok().build();
+    }
+
+    @PostMapping("/audit")
+    @Operation(summary = "Stream the audit events of a time range, optionally narrowed to a realm, subject and event types")
+    public void audit(@RequestBody final AuditQueryRequestDto auditQueryRequestDto, final HttpServletResponse response) throws IOException {
+        final var violations = validator.validate(auditQueryRequestDto);
+
+        for (final var violation : violations) {
+            throw new InvalidRequestException(violation.getPropertyPath().toString(), String.valueOf(violation.getInvalidValue()), violation.getMessage());
+        }
+
+        if (!auditQueryRequestDto.from().isBefore(auditQueryRequestDto.to())) {
+            throw new InvalidRequestException("to", auditQueryRequestDto.to().toString(), "must be after from");
+        }
+
+        final var writer = new NdjsonResponseWriter(response, jsonMapper);
+        auditService.query(auditQueryRequestDto, writer::write);
+        writer.finish();
+    }
+
+    @PostMapping("/audit/stats")
+    @Operation(summary = "Report the queue depth and the written and dropped event counts of the audit log")
+    public ResponseEntity<AuditStatsDto> auditStats(@RequestBody final AuditStatsRequestDto auditStatsRequestDto) {
+        final var violations = validator.validate(auditStatsRequestDto);
+
+        for (final var violation : violations) {
+            throw new InvalidRequestException(violation.getPropertyPath().toString(), String.valueOf(violation.getInvalidValue()), violation.getMessage());
+        }
+
+        return ResponseEntity.ok(auditService.stats(auditStatsRequestDto));
+    }
+
+    /**
+     * Whether the first of PNG and SVG named in the Accept header is SVG. Without either, PNG stays the default.
+     */
+    private static boolean prefersSvg(@Nullable final String accept) {
+        if (accept == null) {
+            return false;
+        }
+        try {
+            return MediaType.parseMediaTypes(accept).stream()
+                    .filter(mediaType -> mediaType.equalsTypeAndSubtype(IMAGE_SVG) || mediaType.equalsTypeAndSubtype(MediaType.IMAGE_PNG))
+                    .findFirst()
+                    .map(mediaType -> mediaType.equalsTypeAndSubtype(IMAGE_SVG))
+                    .orElse(false);
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
     }
 
 }
@@ -1,7 +1,13 @@
 package ch.unibas.medizin.depot.api;
 
+import ch.unibas.medizin.depot.dto.BatchRequestDto;
+import ch.unibas.medizin.depot.dto.BatchResponseDto;
+import ch.unibas.medizin.depot.dto.ChangesDto;
+import ch.unibas.medizin.depot.dto.DigestDto;
+import ch.unibas.medizin.depot.dto.ExtractResponseDto;
 import ch.unibas.medizin.depot.dto.FileDto;
 import ch.unibas.medizin.depot.dto.PutFileResponseDto;
+import ch.unibas.medizin.depot.dto.UploadSessionDto;
 import ch.unibas.medizin.depot.exception.InvalidRequestException;
 import ch.unibas.medizin.depot.service.DepotService;
 import ch.unibas.medizin.depot.util.DepotUtil;
@@ -9,21 +15,38 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.Validator;
 import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import tools.jackson.databind.json.JsonMapper;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.UUID;
 
 @NullMarked
 @RestController
@@ -35,35 +58,239 @@ public class ApiController {
 
     private static final String INVALID_REQUEST_DETAIL = "must only contain letters, digits and the following chars . _ - @ + /";
 
+    private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+
+    private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+
+    private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+
+    private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    private static final String NEXT_CURSOR_HEADER = "Next-Cursor";
+
+    private static final int MAX_LIST_LIMIT = 10_000;
+
+    private static final int DEFAULT_CHANGES_LIMIT = 1_000;
+
+    private static final int MAX_CHANGES_LIMIT = 10_000;
+
+    private static final int MAX_TREE_DEPTH = 32;
+
+    private static final int DEFAULT_TREE_LIMIT = 10_000;
+
+    private static final int MAX_TREE_LIMIT = 100_000;
+
     private final DepotService depotService;
 
-    public ApiController(DepotService depotService) {
+    private final JsonMapper jsonMapper;
+
+    private final Validator validator;
+
+    public ApiController(DepotService depotService, JsonMapper jsonMapper, Validator validator) {
         this.depotService = depotService;
+        this.jsonMapper = jsonMapper;
+        this.validator = validator;
     }
 
     @GetMapping("/list")
     @PreAuthorize("hasRole('READ')")
-    @Operation(summary = "List all files and folders in the given path")
-    public ResponseEntity<List<FileDto>> list(@Parameter(description = "Path to be listed", example = "pictures/cats") @RequestParam("path") final String path,
-                                                  @Parameter(description = "Whether the response shall contain a Murmur3 hash of each file", example = "true") @RequestParam(required = false) final boolean hash) {
+    @Operation(summary = "List all files and folders in the given path, optionally one page at a time or streamed as NDJSON")
+    public @Nullable ResponseEntity<List<FileDto>> list(@Parameter(description = "Path to be listed", example = "pictures/cats") @RequestParam("path") final String path,
+                                                        @Parameter(description = "Whether the response shall contain a Murmur3 hash of each file and a digest of each folder", example = "true") @RequestParam(required = false) final boolean hash,
+                                                        @Parameter(description = "Maximum number of entries, ordered by name; the " + NEXT_CURSOR_HEADER + " response header continues the listing", example = "1000") @RequestParam(required = false) @Nullable final Integer limit,
+                                                        @Parameter(description = "Value of the " + NEXT_CURSOR_HEADER + " header of the previous page") @RequestParam(required = false) @Nullable final String cursor,
+                                                        @RequestHeader(value = HttpHeaders.ACCEPT, required = false) @Nullable final String accept,
+                                                        final HttpServletResponse response) throws IOException {
         if (!DepotUtil.isValidPath(path)) {
             log.error("Invalid request - list path {}", path);
             throw new InvalidRequestException("path", path, INVALID_REQUEST_DETAIL);
         }
 
-        return ResponseEntity.ok(depotService.list(path, hash));
+        if (limit != null && (limit < 1 || limit > MAX_LIST_LIMIT)) {
+            log.error("Invalid request - list limit {}", limit);
+            throw new InvalidRequestException("limit", limit.toString(), "must be between 1 and " + MAX_LIST_LIMIT);
+        }
+
+        if (cursor != null && limit == null) {
+            throw new InvalidRequestException("cursor", cursor, "requires a limit");
+        }
+
+        if (limit == null) {
+            if (!acceptsNdjson(accept)) {
+                return ResponseEntity.ok(depotService.list(path, hash));
+            }
+
+            final var writer = new NdjsonResponseWriter(response, jsonMapper);
+            depotService.list(path, hash, writer::write);
+            writer.finish();
+            return null;
+        }
+
+        final var page = depotService.list(path, hash, limit, cursor);
+
+        if (!acceptsNdjson(accept)) {
+            final var builder = ResponseEntity.ok();
+            if (page.nextCursor() != null) {
+                builder.header(NEXT_CURSOR_HEADER, page.nextCursor());
+            }
+            return builder.body(page.entries());
+        }
+
+        if (page.nextCursor() != null) {
+            response.setHeader(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        final var writer = new NdjsonResponseWriter(response, jsonMapper);
+        page.entries().forEach(writer::write);
+        writer.finish();
+        return null;
+    }
+
+    @GetMapping("/digest")
+    @PreAuthorize("hasRole('READ')")
+    @Operation(summary = "Retrieve the digest of a folder, which changes whenever anything below it changes")
+    public ResponseEntity<DigestDto> digest(@Parameter(description = "Folder to be digested", example = "pictures/cats") @RequestParam("path") final String path) {
+        if (!DepotUtil.isValidPath(path)) {
+            log.error("Invalid request - digest path {}", path);
+            throw new InvalidRequestException("path", path, INVALID_REQUEST_DETAIL);
+        }
+
+        return ResponseEntity.ok(depotService.digest(path));
+    }
+
+    @GetMapping("/changes")
+    @PreAuthorize("hasRole('READ')")
+    @Operation(summary = "List the changes made to the realm after the given cursor")
+    public ResponseEntity<ChangesDto> changes(@Parameter(description = "Cursor of the last change seen, 0 for all; omit to only get the current cursor") @RequestParam(required = false) @Nullable final String since,
+                                              @Parameter(description = "Maximum number of changes", example = "1000") @RequestParam(required = false) @Nullable final Integer limit) {
+        if (limit != null && (limit < 1 || limit > MAX_CHANGES_LIMIT)) {
+            log.error("Invalid request - changes limit {}", limit);
+            throw new InvalidRequestException("limit", limit.toString(), "must be between 1 and " + MAX_CHANGES_LIMIT);
+        }
+
+        return ResponseEntity.ok(depotService.changes(since, limit == null ? DEFAULT_CHANGES_LIMIT : limit));
+    }
+
+    @GetMapping("/events")
+    @PreAuthorize("hasRole('READ')")
+    @Operation(summary = "Stream the changes made to the realm as server-sent events")
+    public void events(@Parameter(description = "Id of the last event received, its successors are replayed first") @RequestHeader(name = "Last-Event-ID", required = false) @Nullable final String lastEventId,
+                       final HttpServletResponse response) {
+        depotService.events(lastEventId, new SseResponseWriter(response, jsonMapper));
+    }
+
+    @GetMapping("/tree")
+    @PreAuthorize("hasRole('READ')")
+    @Operation(summary = "Stream all files and folders below the given path as NDJSON, named relative to it")
+    public void tree(@Parameter(description = "Path to be listed", example = "pictures") @RequestParam("path") final String path,
+                     @Parameter(description = "Whether the response shall contain a Murmur3 hash of each file", example = "true") @RequestParam(required = false) final boolean hash,
+                     @Parameter(description = "Number of levels to descend, 1 lists the direct children only", example = "3") @RequestParam(required = false) @Nullable final Integer depth,
+                     @Parameter(description = "Maximum number of entries", example = "10000") @RequestParam(required = false) @Nullable final Integer limit,
+                     final HttpServletResponse response) throws IOException {
+        if (!DepotUtil.isValidPath(path)) {
+            log.error("Invalid request - tree path {}", path);
+            throw new InvalidRequestException("path", path, INVALID_REQUEST_DETAIL);
+        }
+
+        if (depth != null && (depth < 1 || depth > MAX_TREE_DEPTH)) {
+            log.error("Invalid request - tree depth {}", depth);
+            throw new InvalidRequestException("depth", depth.toString(), "must be between 1 and " + MAX_TREE_DEPTH);
+        }
+
+        if (limit != null && (limit < 1 || limit > MAX_TREE_LIMIT)) {
+            log.error("Invalid request - tree limit {}", limit);
+            throw new InvalidRequestException("limit", limit.toString(), "must be between 1 and " + MAX_TREE_LIMIT);
+        }
+
+        final var writer = new NdjsonResponseWriter(response, jsonMapper);
+        depotService.tree(path, hash, depth == null ? MAX_TREE_DEPTH : depth, limit == null ? DEFAULT_TREE_LIMIT : limit, writer::write);
+        writer.finish();
+    }
+
+    @GetMapping("/archive")
+    @PreAuthorize("hasRole('READ')")
+    @Operation(summary = "Download a folder with everything below it as a ZIP archive")
+    public void archive(@Parameter(description = "Folder to be archived", example = "pictures") @RequestParam("path") final String path,
+                        final HttpServletResponse response) throws IOException {
+        if (!DepotUtil.isValidPath(path)) {
+            log.error("Invalid request - archive path {}", path);
+            throw new InvalidRequestException("path", path, INVALID_REQUEST_DETAIL);
+        }
+
+        depotService.archive(path, filename -> {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("application/zip");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString());
+            return response.getOutputStream();
+        });
+        response.flushBuffer();
+    }
+
+    private static boolean acceptsNdjson(@Nullable final String accept) {
+        if (accept == null) {
+            return false;
+        }
+        try {
+            return MediaType.parseMediaTypes(accept).stream().anyMatch(MediaType.APPLICATION_NDJSON::equalsTypeAndSubtype);
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
     }
 
     @GetMapping("/get")
     @PreAuthorize("hasRole('READ')")
     @Operation(summary = "Retrieve a file")
-    public ResponseEntity<Resource> get(@Parameter(description = "Filename and Path to be retrieved", example = "pictures/cats/cat.png") @RequestParam("file") final String file) {
+    public ResponseEntity<Resource> get(@Parameter(description = "Filename and Path to be retrieved", example = "pictures/cats/cat.png") @RequestParam("file") final String file,
+                                        final HttpServletRequest request,
+                                        final HttpServletResponse response) {
         if (!DepotUtil.isValidAbsolutPath(file)) {
             log.error("Invalid request - get file {}", file);
             throw new InvalidRequestException("file", file, INVALID_REQUEST_DETAIL);
         }
 
-        return depotService.get(file);
+        return sendfile(depotService.get(file), request, response);
+    }
+
+    /**
+     * Hands plain downloads of larger files to Tomcat, which pushes them with FileChannel.transferTo straight
+     * to the socket. Range requests stay with Spring, which answers them with 206 and multipart/byteranges.
+     */
+    private ResponseEntity<Resource> sendfile(final ResponseEntity<Resource> download, final HttpServletRequest request, final HttpServletResponse response) {
+        if (!HttpMethod.GET.matches(request.getMethod())
+                || request.getHeader(HttpHeaders.RANGE) != null
+                || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))
+                || !(download.getBody() instanceof FileSystemResource resource)) {
+            return download;
+        }
+
+        final var headers = download.getHeaders();
+
+        // Tomcat would send the file even with a 304, so conditional requests are settled before
+        if (new ServletWebRequest(request, response).checkNotModified(headers.getETag(), headers.getLastModified())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+        }
+
+        final long length;
+        try {
+            length = resource.contentLength();
+        } catch (IOException e) {
+            return download;
+        }
+
+        if (length < SENDFILE_MIN_SIZE) {
+            return download;
+        }
+
+        request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, resource.getFile().getAbsolutePath());
+        request.setAttribute(SENDFILE_START_ATTRIBUTE, 0L);
+        request.setAttribute(SENDFILE_END_ATTRIBUTE, length);
+
+        return ResponseEntity.ok()
+                .headers(headers)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .contentLength(length)
+                .build();
     }
 
     @PostMapping(value = "/put", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -91,6 +318,82 @@ public class ApiController {
         return ResponseEntity.ok(depotService.put(file, path, hash));
     }
 
+    @PutMapping("/file")
+    @PreAuthorize("hasRole('WRITE')")
+    @Operation(summary = "Store the raw request body as a file")
+    public ResponseEntity<PutFileResponseDto> putFile(@Parameter(description = "Filename and Path where the request body will be stored", example = "pictures/cats/cat.png") @RequestParam("path") final String path,
+                                                      @Parameter(description = "Whether the response shall contain a Murmur3 hash of the stored data", example = "true") @RequestParam(required = false) final boolean hash,
+                                                      final HttpServletRequest request) {
+        final var normalizedPath = DepotUtil.normalizePath(path);
+        final var filename = normalizedPath.getFileName();
+
+        if (!DepotUtil.isValidAbsolutPath(path) || filename == null || filename.toString().isEmpty()) {
+            log.error("Invalid request - put file path {}", path);
+            throw new InvalidRequestException("path", path, INVALID_REQUEST_DETAIL);
+        }
+
+        final var parent = normalizedPath.getParent();
+        final var folder = parent == null ? "" : parent.toString();
+
+        // The servlet input stream is copied straight into the depot tmp file without being spooled first
+        return ResponseEntity.ok(depotService.put(request::getInputStream, folder, filename.toString(), hash));
+    }
+
+    @PostMapping("/extract")
+    @PreAuthorize("hasRole('WRITE')")
+    @Operation(summary = "Store the files of a ZIP or TAR archive sent as raw request body")
+    public ResponseEntity<ExtractResponseDto> extract(@Parameter(description = "Folder below which the archive is extracted", example = "pictures") @RequestParam("path") final String path,
+                                                      final HttpServletRequest request) {
+        if (!DepotUtil.isValidPath(path)) {
+            log.error("Invalid request - extract path {}", path);
+            throw new InvalidRequestException("path", path, INVALID_REQUEST_DETAIL);
+        }
+
+        return ResponseEntity.ok(depotService.extract(path, request::getInputStream));
+    }
+
+    @PostMapping("/upload")
+    @PreAuthorize("hasRole('WRITE')")
+    @Operation(summary = "Start a resumable upload")
+    public ResponseEntity<UploadSessionDto> createUpload(@Parameter(description = "Filename and Path where the upload will be stored", example = "videos/exam.mp4") @RequestParam("path") final String path) {
+        final var normalizedPath = DepotUtil.normalizePath(path);
+        final var filename = normalizedPath.getFileName();
+
+        if (!DepotUtil.isValidAbsolutPath(path) || filename == null || filename.toString().isEmpty()) {
+            log.error("Invalid request - upload path {}", path);
+            throw new InvalidRequestException("path", path, INVALID_REQUEST_DETAIL);
+        }
+
+        final var parent = normalizedPath.getParent();
+        final var folder = parent == null ? "" : parent.toString();
+
+        return ResponseEntity.status(HttpStatus.CREATED).body(depotService.createUpload(folder, filename.toString()));
+    }
+
+    @GetMapping("/upload/{id}")
+    @PreAuthorize("hasRole('WRITE')")
+    @Operation(summary = "Retrieve the offset up to which a resumable upload has been stored")
+    public ResponseEntity<UploadSessionDto> getUpload(@Parameter(description = "Upload id") @PathVariable("id") final UUID id) {
+        return ResponseEntity.ok(depotService.getUpload(id));
+    }
+
+    @PutMapping("/upload/{id}")
+    @PreAuthorize("hasRole('WRITE')")
+    @Operation(summary = "Append the raw request body to a resumable upload")
+    public ResponseEntity<UploadSessionDto> appendUpload(@Parameter(description = "Upload id") @PathVariable("id") final UUID id,
+                                                         @Parameter(description = "Offset at which the request body starts, must match the stored offset", example = "0") @RequestParam("offset") final long offset,
+                                                         final HttpServletRequest request) {
+        return ResponseEntity.ok(depotService.appendUpload(id, offset, request::getInputStream));
+    }
+
+    @PostMapping("/upload/{id}/finish")
+    @PreAuthorize("hasRole('WRITE')")
+    @Operation(summary = "Move a resumable upload into place")
+    public ResponseEntity<PutFileResponseDto> finishUpload(@Parameter(description = "Upload id") @PathVariable("id") final UUID id,
+                                                           @Parameter(description = "Whether the response shall contain a Murmur3 hash of the stored data", example = "true") @RequestParam(required = false) final boolean hash) {
+        return ResponseEntity.ok(depotService.finishUpload(id, hash));
+    }
+
     @GetMapping("/move")
     @PreAuthorize("hasRole('WRITE')")
     @Operation(summary = "Move a file or folder from one path to another")
@@ -110,6 +413,19 @@ public class ApiController {
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
+    @PostMapping("/batch")
+    @PreAuthorize("hasRole('WRITE') or hasRole('DELETE')")
+    @Operation(summary = "Move and delete files or folders in one request")
+    public ResponseEntity<BatchResponseDto> batch(@RequestBody final BatchRequestDto batchRequestDto) {
+        final var violations = validator.validate(batchRequestDto);
+
+        for (final var violation : violations) {
+            throw new InvalidRequestException(violation.getPropertyPath().toString(), String.valueOf(violation.getInvalidValue()), violation.getMessage());
+        }
+
+        return ResponseEntity.ok(depotService.batch(batchRequestDto.operations()));
+    }
+
     @GetMapping("/delete")
     @PreAuthorize("hasRole('DELETE')")
     @Operation(summary = "Delete a file or folder at the given path")
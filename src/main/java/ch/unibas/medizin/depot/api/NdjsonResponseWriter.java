@@ -0,0 +1,60 @@
+package ch.unibas.medizin.depot.api;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.springframework.http.MediaType;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes one JSON document per line straight to the servlet response.
+ * <p>
+ * The status and content type are only committed with the first line, so an exception thrown before that (e.g. a
+ * failed authorization) still gets its regular problem response.
+ */
+@NullMarked
+final class NdjsonResponseWriter {
+
+    private static final byte[] NEWLINE = {'\n'};
+
+    private final HttpServletResponse response;
+
+    private final JsonMapper jsonMapper;
+
+    private @Nullable ServletOutputStream outputStream;
+
+    NdjsonResponseWriter(final HttpServletResponse response, final JsonMapper jsonMapper) {
+        this.response = response;
+        this.jsonMapper = jsonMapper;
+    }
+
+    void write(final Object value) {
+        try {
+            final var stream = outputStream();
+            stream.write(jsonMapper.writeValueAsBytes(value));
+            stream.write(NEWLINE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void finish() throws IOException {
+        outputStream().flush();
+    }
+
+    private ServletOutputStream outputStream() throws IOException {
+        var stream = outputStream;
+        if (stream == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+            stream = response.getOutputStream();
+            outputStream = stream;
+        }
+        return stream;
+    }
+
+}
@@ -0,0 +1,86 @@
+package ch.unibas.medizin.depot.api;
+
+import ch.unibas.medizin.depot.dto.ChangeDto;
+import ch.unibas.medizin.depot.service.DepotService;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes server-sent events straight to the servlet response from the request thread, without async dispatch.
+ * <p>
+ * Like {@link NdjsonResponseWriter} the response is only committed with the first event, and every batch is flushed
+ * so it reaches the client right away. A failing write means the client is gone and ends the stream.
+ */
+@NullMarked
+final class SseResponseWriter implements DepotService.ChangeListener {
+
+    private static final long RETRY_MILLIS = 5_000;
+
+    private final HttpServletResponse response;
+
+    private final JsonMapper jsonMapper;
+
+    private @Nullable ServletOutputStream outputStream;
+
+    SseResponseWriter(final HttpServletResponse response, final JsonMapper jsonMapper) {
+        this.response = response;
+        this.jsonMapper = jsonMapper;
+    }
+
+    @Override
+    public void changes(final List<ChangeDto> changes) throws IOException {
+        final var events = new StringBuilder();
+        for (final var change : changes) {
+            events.append("id: ").append(change.cursor()).append('\n')
+                    .append("event: change\n")
+                    .append("data: ").append(jsonMapper.writeValueAsString(change)).append("\n\n");
+        }
+        send(events);
+    }
+
+    @Override
+    public void resync(final String cursor) throws IOException {
+        send(new StringBuilder()
+                .append("id: ").append(cursor).append('\n')
+                .append("event: resync\n")
+                .append("data: ").append(jsonMapper.writeValueAsString(Map.of("cursor", cursor))).append("\n\n"));
+    }
+
+    @Override
+    public void heartbeat() throws IOException {
+        send(new StringBuilder(":\n\n"));
+    }
+
+    private void send(final CharSequence events) throws IOException {
+        final var stream = outputStream();
+        stream.write(events.toString().getBytes(StandardCharsets.UTF_8));
+        stream.flush();
+    }
+
+    private ServletOutputStream outputStream() throws IOException {
+        var stream = outputStream;
+        if (stream == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+            // Keeps reverse proxies like the bundled nginx from buffering the stream
+            response.setHeader("X-Accel-Buffering", "no");
+            stream = response.getOutputStream();
+            stream.write(("retry: " + RETRY_MILLIS + "\n\n").getBytes(StandardCharsets.UTF_8));
+            outputStream = stream;
+        }
+        return stream;
+    }
+
+}
@@ -0,0 +1,41 @@
+package ch.unibas.medizin.depot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "depot.audit-log")
+public record AuditLogProperties(
+        int queueCapacity,
+        Duration flushInterval,
+        Duration segmentDuration,
+        Fsync fsync,
+        Overflow overflow
+) {
+
+    public enum Fsync {
+        NEVER, EVERY_FLUSH
+    }
+
+    public enum Overflow {
+        BLOCK, DROP
+    }
+
+    public AuditLogProperties {
+        if (queueCapacity <= 0) {
+            queueCapacity = 10_000;
+        }
+        if (flushInterval == null || flushInterval.isZero() || flushInterval.isNegative()) {
+            flushInterval = Duration.ofSeconds(1);
+        }
+        if (segmentDuration == null || segmentDuration.toMillis() <= 0) {
+            segmentDuration = Duration.ofHours(1);
+        }
+        if (fsync == null) {
+            fsync = Fsync.NEVER;
+        }
+        if (overflow == null) {
+            overflow = Overflow.BLOCK;
+        }
+    }
+}
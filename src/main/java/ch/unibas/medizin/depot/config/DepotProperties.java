@@ -39,7 +39,7 @@ public class DepotProperties {
     @NotEmpty
     private final Map<String, Tenant> tenants;
 
-    public record Tenant(String password, boolean softDelete, boolean backup) {
+    public record Tenant(String password, boolean softDelete, boolean backup, boolean contentTypeByExtension, boolean dedup) {
     }
 
     public DepotProperties(Path baseDirectory, String host, String jwtSecret, Map<String, Tenant> tenants) {
@@ -142,7 +142,7 @@ public class DepotProperties {
         try {
             var encodedDefaultTenantPassword = Files.readString(defaultTenantPasswordPath);
             log.info("Default tenant password read from {}", defaultTenantPasswordPath);
-            return Map.of(DEFAULT_TENANT_NAME, new Tenant(encodedDefaultTenantPassword, false, false));
+            return Map.of(DEFAULT_TENANT_NAME, new Tenant(encodedDefaultTenantPassword, false, false, false, false));
         } catch (IOException e) {
             log.info("No default tenant password found in {}", defaultTenantPasswordPath);
 
@@ -158,7 +158,7 @@ public class DepotProperties {
                 }
                 Files.createDirectories(baseDirectory);
                 Files.writeString(baseDirectory.resolve(defaultTenantPasswordFilename), encodedDefaultTenantPassword);
-                return Map.of(DEFAULT_TENANT_NAME, new Tenant(encodedDefaultTenantPassword, false, false));
+                return Map.of(DEFAULT_TENANT_NAME, new Tenant(encodedDefaultTenantPassword, false, false, false, false));
             } catch (IOException ex) {
                 log.error("Error while writing {}", defaultTenantPasswordFilename, ex);
                 throw new FatalBeanException("Failed to configure DepotProperties!");
@@ -0,0 +1,25 @@
+package ch.unibas.medizin.depot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@ConfigurationProperties(prefix = "depot.hot-file-cache")
+public record HotFileCacheProperties(
+        boolean enabled,
+        DataSize maxFileSize,
+        DataSize maxSize,
+        int maxEntries
+) {
+
+    public HotFileCacheProperties {
+        if (maxFileSize == null || maxFileSize.toBytes() <= 0) {
+            maxFileSize = DataSize.ofMegabytes(1);
+        }
+        if (maxSize == null || maxSize.toBytes() <= 0) {
+            maxSize = DataSize.ofMegabytes(64);
+        }
+        if (maxEntries <= 0) {
+            maxEntries = 1_000;
+        }
+    }
+}
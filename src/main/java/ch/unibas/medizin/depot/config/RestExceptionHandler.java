@@ -52,6 +52,31 @@ public record RestExceptionHandler() {
         return problemDetails;
     }
 
+    @ExceptionHandler(UploadNotFoundException.class)
+    public ProblemDetail handleUploadNotFoundException(final UploadNotFoundException uploadNotFoundException) {
+        var problemDetails = ProblemDetail.forStatusAndDetail(HttpStatus.NOT_FOUND, uploadNotFoundException.getLocalizedMessage());
+        problemDetails.setTitle("Upload not found");
+        problemDetails.setProperty("id", uploadNotFoundException.getId());
+        return problemDetails;
+    }
+
+    @ExceptionHandler(UploadOffsetMismatchException.class)
+    public ProblemDetail handleUploadOffsetMismatchException(final UploadOffsetMismatchException uploadOffsetMismatchException) {
+        var problemDetails = ProblemDetail.forStatusAndDetail(HttpStatus.CONFLICT, uploadOffsetMismatchException.getLocalizedMessage());
+        problemDetails.setTitle("Offset mismatch");
+        problemDetails.setProperty("id", uploadOffsetMismatchException.getId());
+        problemDetails.setProperty("offset", uploadOffsetMismatchException.getOffset());
+        return problemDetails;
+    }
+
+    @ExceptionHandler(CursorExpiredException.class)
+    public ProblemDetail handleCursorExpiredException(final CursorExpiredException cursorExpiredException) {
+        var problemDetails = ProblemDetail.forStatusAndDetail(HttpStatus.GONE, cursorExpiredException.getLocalizedMessage());
+        problemDetails.setTitle("Cursor expired");
+        problemDetails.setProperty("cursor", cursorExpiredException.getCursor());
+        return problemDetails;
+    }
+
     @ExceptionHandler(InvalidRequestException.class)
     public ProblemDetail handleInvalidRequestException(final InvalidRequestException invalidRequestException) {
         var problemDetails = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, invalidRequestException.getLocalizedMessage());
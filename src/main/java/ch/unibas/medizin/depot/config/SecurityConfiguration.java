@@ -1,6 +1,7 @@
 package ch.unibas.medizin.depot.config;
 
 import ch.unibas.medizin.depot.security.JWTAuthorizationFilter;
+import com.auth0.jwt.algorithms.Algorithm;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -35,7 +36,7 @@ public class SecurityConfiguration {
                 .authorizeHttpRequests(authorizeHttpRequests ->
                         authorizeHttpRequests
                                 .requestMatchers(HttpMethod.GET, "/", "/index.html", "/favicon.svg", "/assets/**", "/browse", "/browse/**", "/view/**", "/info").permitAll()
-                                .requestMatchers(HttpMethod.POST, "/admin/register", "/admin/qr").permitAll()
+                                .requestMatchers(HttpMethod.POST, "/admin/register", "/admin/register/bulk", "/admin/qr", "/admin/qr/bulk", "/admin/revoke", "/admin/audit", "/admin/audit/stats").permitAll()
                                 .requestMatchers("/v3/api-docs/**", "/swagger-ui/**").permitAll()
                                 .anyRequest().authenticated()
                 )
@@ -49,6 +50,14 @@ public class SecurityConfiguration {
         return httpSecurity.build();
     }
 
+    /**
+     * Signs and verifies depot tokens. Static, as the filter this configuration depends on needs it too.
+     */
+    @Bean
+    public static Algorithm jwtAlgorithm(final DepotProperties depotProperties) {
+        return Algorithm.HMAC256(depotProperties.getJwtSecret());
+    }
+
     @Bean
     public PasswordEncoder encoder() {
         return new BCryptPasswordEncoder();
@@ -3,5 +3,6 @@ package ch.unibas.medizin.depot.dto;
 import io.swagger.v3.oas.annotations.media.Schema;
 
 @Schema(name = "AccessTokenResponse")
-public record AccessTokenResponseDto(String token) {
+public record AccessTokenResponseDto(String token,
+                                     @Schema(description = "token id, as recorded in the audit log") String id) {
 }
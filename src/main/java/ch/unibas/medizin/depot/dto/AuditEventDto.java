@@ -0,0 +1,9 @@
+package ch.unibas.medizin.depot.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.Instant;
+
+@Schema(name = "AuditEvent")
+public record AuditEventDto(Instant timestamp, String type, String realm, String subject, String description) {
+}
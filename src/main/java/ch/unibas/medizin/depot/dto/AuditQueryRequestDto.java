@@ -0,0 +1,23 @@
+package ch.unibas.medizin.depot.dto;
+
+import ch.unibas.medizin.depot.service.LogService;
+import ch.unibas.medizin.depot.validation.PathConstraint;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import org.jspecify.annotations.Nullable;
+import tools.jackson.databind.annotation.JsonDeserialize;
+
+import java.time.Instant;
+import java.util.Set;
+
+@Schema(name = "AuditQueryRequest")
+public record AuditQueryRequestDto(@Schema(example = "acme") @NotBlank @Size(max = 64) @PathConstraint String tenant,
+                                   @Schema(example = "Top$ec3rit!") @NotBlank @Size(max = 64) String password,
+                                   @Schema(description = "first instant included, ISO date (UTC start of day) or date-time", example = "2025-12-01") @NotNull @JsonDeserialize(using = ExpirationDeserializer.class) Instant from,
+                                   @Schema(description = "first instant excluded, ISO date (UTC start of day) or date-time", example = "2025-12-02") @NotNull @JsonDeserialize(using = ExpirationDeserializer.class) Instant to,
+                                   @Schema(description = "only events of this realm", example = "exam101") @Size(max = 64) @Nullable String realm,
+                                   @Schema(description = "only events of this client identifier", example = "iPad #213") @Size(max = 64) @Nullable String subject,
+                                   @Schema(description = "only events of these types, all if empty") @Nullable Set<LogService.EventType> types) {
+}
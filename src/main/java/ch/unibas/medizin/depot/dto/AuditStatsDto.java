@@ -0,0 +1,9 @@
+package ch.unibas.medizin.depot.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(name = "AuditStats")
+public record AuditStatsDto(@Schema(description = "events queued but not yet written") int depth,
+                            @Schema(description = "events written since the start") long written,
+                            @Schema(description = "events dropped since the start because the queue was full") long dropped) {
+}
@@ -0,0 +1,11 @@
+package ch.unibas.medizin.depot.dto;
+
+import ch.unibas.medizin.depot.validation.PathConstraint;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
+
+@Schema(name = "AuditStatsRequest")
+public record AuditStatsRequestDto(@Schema(example = "acme") @NotBlank @Size(max = 64) @PathConstraint String tenant,
+                                   @Schema(example = "Top$ec3rit!") @NotBlank @Size(max = 64) String password) {
+}
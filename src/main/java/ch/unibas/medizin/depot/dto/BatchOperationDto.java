@@ -0,0 +1,11 @@
+package ch.unibas.medizin.depot.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import org.jspecify.annotations.Nullable;
+
+@Schema(name = "BatchOperation")
+public record BatchOperationDto(@Schema(allowableValues = {"MOVE", "DELETE"}) @NotNull String operation,
+                                @Schema(description = "path to delete or source of a MOVE", example = "pictures/cats/cat.png") @NotNull String path,
+                                @Schema(description = "destination of a MOVE", example = "pictures/dogs/cat.png") @Nullable String toPath) {
+}
@@ -0,0 +1,12 @@
+package ch.unibas.medizin.depot.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+@Schema(name = "BatchRequest")
+public record BatchRequestDto(@Schema(description = "executed as if sent one after the other; operations on unrelated paths run in parallel") @NotNull @Size(min = 1, max = 1000) List<@Valid @NotNull BatchOperationDto> operations) {
+}
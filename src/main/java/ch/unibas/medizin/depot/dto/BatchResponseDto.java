@@ -0,0 +1,12 @@
+package ch.unibas.medizin.depot.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.List;
+
+@Schema(name = "BatchResponse")
+public record BatchResponseDto(int succeeded,
+                               int failed,
+                               @Schema(description = "one result per operation, in request order") @NotNull List<BatchResultDto> results) {
+}
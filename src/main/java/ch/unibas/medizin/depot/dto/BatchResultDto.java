@@ -0,0 +1,10 @@
+package ch.unibas.medizin.depot.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import org.jspecify.annotations.Nullable;
+
+@Schema(name = "BatchResult")
+public record BatchResultDto(@Schema(allowableValues = {"OK", "NOT_FOUND", "CONFLICT", "REJECTED", "FAILED"}) @NotNull String status,
+                             @Schema(description = "why the operation did not succeed") @Nullable String detail) {
+}
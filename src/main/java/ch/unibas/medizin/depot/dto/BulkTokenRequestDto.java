@@ -0,0 +1,16 @@
+package ch.unibas.medizin.depot.dto;
+
+import ch.unibas.medizin.depot.validation.PathConstraint;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+@Schema(name = "BulkTokenRequest")
+public record BulkTokenRequestDto(@Schema(example = "acme") @NotBlank @Size(max = 64) @PathConstraint String tenant,
+                                  @Schema(example = "Top$ec3rit!") @NotBlank @Size(max = 64) String password,
+                                  @Schema(description = "one token is issued per entry") @NotNull @Size(min = 1, max = 1000) List<@Valid @NotNull BulkTokenEntryDto> tokens) {
+}
@@ -0,0 +1,10 @@
+package ch.unibas.medizin.depot.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.List;
+
+@Schema(name = "BulkTokenResponse")
+public record BulkTokenResponseDto(@Schema(description = "one token per entry, in request order") @NotNull List<AccessTokenResponseDto> tokens) {
+}
@@ -0,0 +1,15 @@
+package ch.unibas.medizin.depot.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import org.jspecify.annotations.Nullable;
+
+import java.time.Instant;
+
+@Schema(name = "Change")
+public record ChangeDto(@NotNull String cursor,
+                        @NotNull Instant timestamp,
+                        @Schema(allowableValues = {"PUT", "DELETE", "SOFT_DELETE", "MOVE", "BACKUP"}) @NotNull String type,
+                        @Schema(description = "path relative to the realm") @NotNull String path,
+                        @Schema(description = "destination of a MOVE") @Nullable String toPath) {
+}
@@ -0,0 +1,12 @@
+package ch.unibas.medizin.depot.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.List;
+
+@Schema(name = "Changes")
+public record ChangesDto(@NotNull List<ChangeDto> changes,
+                         @Schema(description = "pass as since to continue after the last returned change") @NotNull String cursor,
+                         @Schema(description = "whether more changes are available right away") boolean more) {
+}
@@ -0,0 +1,9 @@
+package ch.unibas.medizin.depot.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+
+@Schema(name = "Digest")
+public record DigestDto(@NotNull String path,
+                        @NotNull String digest) {
+}
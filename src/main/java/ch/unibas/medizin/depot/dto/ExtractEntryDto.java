@@ -0,0 +1,12 @@
+package ch.unibas.medizin.depot.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import org.jspecify.annotations.Nullable;
+
+@Schema(name = "ExtractEntry")
+public record ExtractEntryDto(@Schema(description = "entry name as found in the archive") @NotNull String name,
+                              @Schema(allowableValues = {"STORED", "REJECTED", "FAILED"}) @NotNull String status,
+                              long bytes,
+                              @Schema(description = "why the entry was not stored") @Nullable String detail) {
+}
@@ -0,0 +1,13 @@
+package ch.unibas.medizin.depot.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.List;
+
+@Schema(name = "ExtractResponse")
+public record ExtractResponseDto(int stored,
+                                 int rejected,
+                                 int failed,
+                                 @Schema(description = "one result per archive entry, in archive order") @NotNull List<ExtractEntryDto> entries) {
+}
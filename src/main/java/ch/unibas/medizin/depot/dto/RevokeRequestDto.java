@@ -0,0 +1,12 @@
+package ch.unibas.medizin.depot.dto;
+
+import ch.unibas.medizin.depot.validation.PathConstraint;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
+
+@Schema(name = "RevokeRequest")
+public record RevokeRequestDto(@Schema(example = "acme") @NotBlank @Size(max = 64) @PathConstraint String tenant,
+                               @Schema(example = "Top$ec3rit!") @NotBlank @Size(max = 64) String password,
+                               @Schema(description = "the token to revoke, its id and expiration are taken from it") @NotBlank @Size(max = 4096) String token) {
+}
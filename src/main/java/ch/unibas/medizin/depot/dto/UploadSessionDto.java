@@ -0,0 +1,8 @@
+package ch.unibas.medizin.depot.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(name = "UploadSession")
+public record UploadSessionDto(String id,
+                               long offset) {
+}
@@ -0,0 +1,16 @@
+package ch.unibas.medizin.depot.exception;
+
+public class CursorExpiredException extends RuntimeException {
+
+    private final String cursor;
+
+    public CursorExpiredException(String cursor) {
+        super("Cursor " + cursor + " is no longer valid, a full rescan is required");
+        this.cursor = cursor;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+}
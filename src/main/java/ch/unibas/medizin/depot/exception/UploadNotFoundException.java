@@ -0,0 +1,16 @@
+package ch.unibas.medizin.depot.exception;
+
+public class UploadNotFoundException extends RuntimeException {
+
+    private final String id;
+
+    public UploadNotFoundException(String id) {
+        super("Upload " + id + " not found");
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+}
@@ -0,0 +1,23 @@
+package ch.unibas.medizin.depot.exception;
+
+public class UploadOffsetMismatchException extends RuntimeException {
+
+    private final String id;
+
+    private final long offset;
+
+    public UploadOffsetMismatchException(String id, long offset) {
+        super("Upload " + id + " continues at offset " + offset);
+        this.id = id;
+        this.offset = offset;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+}
@@ -0,0 +1,76 @@
+package ch.unibas.medizin.depot.security;
+
+import ch.unibas.medizin.depot.config.DepotProperties;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.springframework.util.StringUtils;
+
+import java.nio.file.Path;
+import java.security.Principal;
+
+/**
+ * The caller of a storage request as stated by its token, with the realm folder and tenant options already looked up.
+ * <p>
+ * {@link #getName()} keeps the tenant, realm and subject joined by {@link JWTAuthorizationFilter#TOKEN_DATA_DELIMITER},
+ * the form authentication names always had.
+ */
+@NullMarked
+public record DepotPrincipal(String tenant, String realm, String subject, int mode, Path basePath,
+                             DepotProperties.@Nullable Tenant tenantConfig) implements Principal {
+
+    public static final int READ = 1;
+
+    public static final int WRITE = 2;
+
+    public static final int DELETE = 4;
+
+    /**
+     * @throws IllegalArgumentException if tenant, realm or subject is empty or blank
+     */
+    public static DepotPrincipal of(final DepotProperties depotProperties, final String tenant, final String realm, final String subject, final int mode) {
+        if (!StringUtils.hasText(tenant)) {
+            throw new IllegalArgumentException("Empty tenant");
+        }
+        if (!StringUtils.hasText(realm)) {
+            throw new IllegalArgumentException("Empty realm");
+        }
+        if (!StringUtils.hasText(subject)) {
+            throw new IllegalArgumentException("Empty subject");
+        }
+        final var basePath = depotProperties.getBaseDirectory().resolve(tenant).resolve(realm).normalize().toAbsolutePath();
+        return new DepotPrincipal(tenant, realm, subject, mode, basePath, depotProperties.getTenants().get(tenant));
+    }
+
+    /**
+     * Mode bits of a token's {@code mode} claim such as {@code "rw"}.
+     */
+    public static int modeOf(final String mode) {
+        return (mode.contains("r") ? READ : 0) | (mode.contains("w") ? WRITE : 0) | (mode.contains("d") ? DELETE : 0);
+    }
+
+    public boolean canRead() {
+        return (mode & READ) != 0;
+    }
+
+    public boolean canWrite() {
+        return (mode & WRITE) != 0;
+    }
+
+    public boolean canDelete() {
+        return (mode & DELETE) != 0;
+    }
+
+    public boolean softDelete() {
+        return tenantConfig != null && tenantConfig.softDelete();
+    }
+
+    public boolean backup() {
+        return tenantConfig != null && tenantConfig.backup();
+    }
+
+    @Override
+    public String getName() {
+        return tenant + JWTAuthorizationFilter.TOKEN_DATA_DELIMITER + realm + JWTAuthorizationFilter.TOKEN_DATA_DELIMITER + subject;
+    }
+
+}
@@ -1,6 +1,7 @@
 package ch.unibas.medizin.depot.security;
 
 import ch.unibas.medizin.depot.config.DepotProperties;
+import ch.unibas.medizin.depot.service.TokenRevocationService;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
@@ -11,6 +12,7 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -18,11 +20,26 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Authenticates requests carrying a depot token, with a {@link DepotPrincipal} as principal.
+ * <p>
+ * Verified tokens are remembered with the authentication built from their claims, so clients sending the same token
+ * with every request skip the signature check and claim decoding after the first one. Lookups go to a concurrent map
+ * without any lock; an entry is ignored and dropped once its token has expired. When the map reaches
+ * {@value #MAX_CACHED_TOKENS} tokens, one request at a time sweeps out the expired ones and, if that is not enough,
+ * arbitrary others until a quarter is free again. Revocation is checked on every request, cached or not.
+ */
 @Component
 @NullMarked
 public class JWTAuthorizationFilter extends OncePerRequestFilter {
@@ -31,14 +48,28 @@ public class JWTAuthorizationFilter extends OncePerRequestFilter {
 
     public static final String TOKEN_DATA_DELIMITER = String.valueOf(Character.LINE_SEPARATOR);
 
+    private static final int MAX_CACHED_TOKENS = 10_000;
+
     private final String HEADER = "Authorization";
 
     private final String PREFIX = "Bearer ";
 
+    private final DepotProperties depotProperties;
+
+    private final TokenRevocationService tokenRevocationService;
+
     private final JWTVerifier verifier;
 
-    public JWTAuthorizationFilter(final DepotProperties depotProperties) {
-        final var algorithm = Algorithm.HMAC256(depotProperties.getJwtSecret());
+    private final Map<String, VerifiedToken> verifiedTokens = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private record VerifiedToken(DepotPrincipal principal, List<GrantedAuthority> authorities, Instant expiresAt, @Nullable String id) {
+    }
+
+    public JWTAuthorizationFilter(final DepotProperties depotProperties, final Algorithm algorithm, final TokenRevocationService tokenRevocationService) {
+        this.depotProperties = depotProperties;
+        this.tokenRevocationService = tokenRevocationService;
         this.verifier = JWT.require(algorithm).withIssuer("depot").build();
     }
 
@@ -46,8 +77,8 @@ public class JWTAuthorizationFilter extends OncePerRequestFilter {
     protected void doFilterInternal(final HttpServletRequest httpServletRequest, final HttpServletResponse httpServletResponse, final FilterChain filterChain) throws ServletException, IOException {
         if (checkJWTToken(httpServletRequest)) {
             try {
-                final var decodedJWT = validateToken(httpServletRequest);
-                setUpSpringAuthentication(decodedJWT);
+                final var verifiedToken = validateToken(httpServletRequest);
+                setUpSpringAuthentication(verifiedToken);
             } catch (JWTVerificationException e) {
                 log.error("JWT verification failed: {}", e.getMessage());
             }
@@ -55,33 +86,88 @@ public class JWTAuthorizationFilter extends OncePerRequestFilter {
         filterChain.doFilter(httpServletRequest, httpServletResponse);
     }
 
-    private DecodedJWT validateToken(final HttpServletRequest httpServletRequest) {
+    private VerifiedToken validateToken(final HttpServletRequest httpServletRequest) {
         final var token = httpServletRequest.getHeader(HEADER).replace(PREFIX, "");
-        return verifier.verify(token);
+
+        final var cached = verifiedTokens.get(token);
+        if (cached != null) {
+            if (Instant.now().isBefore(cached.expiresAt())) {
+                return throwIfRevoked(token, cached);
+            }
+            verifiedTokens.remove(token);
+        }
+
+        final var decodedJWT = verifier.verify(token);
+        final var expiresAt = decodedJWT.getExpiresAtAsInstant();
+        final var principal = toPrincipal(decodedJWT);
+        final var verifiedToken = new VerifiedToken(principal, toAuthorities(principal), expiresAt == null ? Instant.MAX : expiresAt, decodedJWT.getId());
+        throwIfRevoked(token, verifiedToken);
+        // Tokens without expiry are not issued by depot and are verified every time
+        if (expiresAt != null) {
+            if (verifiedTokens.size() >= MAX_CACHED_TOKENS) {
+                evict();
+            }
+            verifiedTokens.put(token, verifiedToken);
+        }
+        return verifiedToken;
+    }
+
+    private void evict() {
+        // Requests arriving meanwhile add their token anyway, the map may exceed the limit by that many for a moment
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final var now = Instant.now();
+            verifiedTokens.values().removeIf(verifiedToken -> !now.isBefore(verifiedToken.expiresAt()));
+            final var iterator = verifiedTokens.keySet().iterator();
+            while (verifiedTokens.size() > MAX_CACHED_TOKENS * 3 / 4 && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        } finally {
+            evicting.set(false);
+        }
     }
 
-    private void setUpSpringAuthentication(final DecodedJWT decodedJWT) {
-        final var tenantRealmAndSubject = String.format(
-                "%s%s%s%s%s",
-                decodedJWT.getClaim("tenant").asString(),
-                JWTAuthorizationFilter.TOKEN_DATA_DELIMITER,
-                decodedJWT.getClaim("realm").asString(),
-                JWTAuthorizationFilter.TOKEN_DATA_DELIMITER,
-                decodedJWT.getSubject()
-        );
+    private VerifiedToken throwIfRevoked(final String token, final VerifiedToken verifiedToken) {
+        // Tokens issued before ids were added carry none and cannot be revoked one by one
+        final var id = verifiedToken.id();
+        if (id != null && tokenRevocationService.isRevoked(verifiedToken.principal().tenant(), id)) {
+            verifiedTokens.remove(token);
+            throw new JWTVerificationException("Token " + id + " is revoked");
+        }
+        return verifiedToken;
+    }
+
+    private DepotPrincipal toPrincipal(final DecodedJWT decodedJWT) {
+        final var tenant = decodedJWT.getClaim("tenant").asString();
+        final var realm = decodedJWT.getClaim("realm").asString();
+        final var subject = decodedJWT.getSubject();
+        final var mode = decodedJWT.getClaim("mode").asString();
+        if (!StringUtils.hasText(tenant) || !StringUtils.hasText(realm) || !StringUtils.hasText(subject) || mode == null) {
+            throw new JWTVerificationException("Token lacks tenant, realm, subject or mode");
+        }
+        return DepotPrincipal.of(depotProperties, tenant, realm, subject, DepotPrincipal.modeOf(mode));
+    }
 
+    static List<GrantedAuthority> toAuthorities(final DepotPrincipal principal) {
         final var grantedAuthorities = new ArrayList<GrantedAuthority>();
-        if (decodedJWT.getClaim("mode").asString().contains("r")) {
+        if (principal.canRead()) {
             grantedAuthorities.add(new SimpleGrantedAuthority("ROLE_READ"));
         }
-        if (decodedJWT.getClaim("mode").asString().contains("w")) {
+        if (principal.canWrite()) {
             grantedAuthorities.add(new SimpleGrantedAuthority("ROLE_WRITE"));
         }
-        if (decodedJWT.getClaim("mode").asString().contains("d")) {
+        if (principal.canDelete()) {
             grantedAuthorities.add(new SimpleGrantedAuthority("ROLE_DELETE"));
         }
+        return List.copyOf(grantedAuthorities);
+    }
 
-        final var authenticationToken = new UsernamePasswordAuthenticationToken(tenantRealmAndSubject, null, grantedAuthorities);
+    private void setUpSpringAuthentication(final VerifiedToken verifiedToken) {
+        // A fresh authentication per request, as Spring Security may mutate it (details, erased credentials)
+        final var authenticationToken = new UsernamePasswordAuthenticationToken(verifiedToken.principal(), null, verifiedToken.authorities());
         SecurityContextHolder.getContext().setAuthentication(authenticationToken);
     }
 
@@ -26,7 +26,7 @@ public class RateLimitingFilter extends OncePerRequestFilter {
 
     private static final Logger log = LoggerFactory.getLogger(RateLimitingFilter.class);
 
-    private static final Set<String> PROTECTED_PATHS = Set.of("/admin/register", "/admin/qr");
+    private static final Set<String> PROTECTED_PATHS = Set.of("/admin/register", "/admin/register/bulk", "/admin/qr", "/admin/qr/bulk", "/admin/revoke", "/admin/audit", "/admin/audit/stats");
 
     private final RateLimitProperties properties;
     private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
@@ -3,87 +3,185 @@ package ch.unibas.medizin.depot.service;
 import ch.unibas.medizin.depot.config.DepotProperties;
 import ch.unibas.medizin.depot.dto.AccessTokenRequestDto;
 import ch.unibas.medizin.depot.dto.AccessTokenResponseDto;
+import ch.unibas.medizin.depot.dto.BulkTokenEntryDto;
+import ch.unibas.medizin.depot.dto.BulkTokenRequestDto;
+import ch.unibas.medizin.depot.dto.BulkTokenResponseDto;
+import ch.unibas.medizin.depot.dto.RevokeRequestDto;
+import ch.unibas.medizin.depot.exception.InvalidRequestException;
+import ch.unibas.medizin.depot.util.QrCodeRenderer;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
 import io.nayuki.qrcodegen.QrCode;
+import org.apache.logging.log4j.util.Strings;
 import org.jspecify.annotations.NullMarked;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Locale;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @Service
 @NullMarked
 public record AccessTokenService(
         DepotProperties depotProperties,
+        Algorithm jwtAlgorithm,
         AuthorizationService authorizationService,
-        LogService logService
+        LogService logService,
+        TokenRevocationService tokenRevocationService
 ) {
 
     private static final Logger log = LoggerFactory.getLogger(AccessTokenService.class);
 
+    private static final int QR_SCALE = 4;
+
+    private static final int QR_BORDER = 10;
+
+    private static final Pattern UNSAFE_FILENAME_CHARACTERS = Pattern.compile("[^\\w .#-]");
+
+    private record IssuedToken(String token, String id) {
+    }
+
+    public interface QrArchiveTarget {
+
+        /**
+         * Called once the tenant password has been checked, with the name the archive should be offered under.
+         */
+        OutputStream open(String filename) throws IOException;
+
+    }
+
     public AccessTokenResponseDto requestTokenString(final AccessTokenRequestDto accessTokenRequestDto) {
-        final var token = getToken(accessTokenRequestDto);
-        return new AccessTokenResponseDto(token);
+        final var issuedToken = getToken(accessTokenRequestDto);
+        return new AccessTokenResponseDto(issuedToken.token(), issuedToken.id());
     }
 
     public byte[] requestTokenQr(final AccessTokenRequestDto accessTokenRequestDto) {
-        final var token = getToken(accessTokenRequestDto);
-        final var host = depotProperties.getHost();
-        final var base = host.endsWith("/") ? host.substring(0, host.length() - 1) : host;
-        final var url = base + "/#token=" + token;
-        final var qrCode = QrCode.encodeText(url, QrCode.Ecc.LOW);
-        return toImage(qrCode);
+        final var token = getToken(accessTokenRequestDto).token();
+        return QrCodeRenderer.toPng(toQrCode(token), QR_SCALE, QR_BORDER);
+    }
+
+    public String requestTokenQrSvg(final AccessTokenRequestDto accessTokenRequestDto) {
+        final var token = getToken(accessTokenRequestDto).token();
+        return QrCodeRenderer.toSvg(toQrCode(token), QR_BORDER);
     }
 
-    private byte[] toImage(QrCode qr) {
-        final var scale = 4;
-        final var border = 10;
-        final var result = new BufferedImage((qr.size + border * 2) * scale, (qr.size + border * 2) * scale, BufferedImage.TYPE_INT_RGB);
+    /**
+     * Issues one token per entry, checking the tenant password once for all of them.
+     */
+    public BulkTokenResponseDto requestTokenStrings(final BulkTokenRequestDto bulkTokenRequestDto) {
+        authorizationService.throwIfAdminPasswordMismatches(bulkTokenRequestDto.tenant(), bulkTokenRequestDto.password());
+        log.info("Bulk token request with tenant={} count={}", bulkTokenRequestDto.tenant(), bulkTokenRequestDto.tokens().size());
+
+        final var tokens = new ArrayList<AccessTokenResponseDto>(bulkTokenRequestDto.tokens().size());
+        for (final var entry : bulkTokenRequestDto.tokens()) {
+            final var issuedToken = issue(bulkTokenRequestDto.tenant(), entry);
+            tokens.add(new AccessTokenResponseDto(issuedToken.token(), issuedToken.id()));
+        }
+        return new BulkTokenResponseDto(tokens);
+    }
 
-        for (int y = 0; y < result.getHeight(); y++) {
-            for (int x = 0; x < result.getWidth(); x++) {
-                boolean color = qr.getModule(x / scale - border, y / scale - border);
-                result.setRGB(x, y, color ? 0x000000 : 0xFFFFFF);
+    /**
+     * Issues one token per entry like {@link #requestTokenStrings} and writes their QR codes as a ZIP archive with a
+     * folder per realm. PNGs are already compressed, so the entries are stored as they are.
+     */
+    public void requestTokenQrs(final BulkTokenRequestDto bulkTokenRequestDto, final QrArchiveTarget target) throws IOException {
+        authorizationService.throwIfAdminPasswordMismatches(bulkTokenRequestDto.tenant(), bulkTokenRequestDto.password());
+        log.info("Bulk QR request with tenant={} count={}", bulkTokenRequestDto.tenant(), bulkTokenRequestDto.tokens().size());
+
+        final var entries = bulkTokenRequestDto.tokens();
+        final var digits = String.valueOf(entries.size()).length();
+        try (final var zipOutputStream = new ZipOutputStream(target.open(bulkTokenRequestDto.tenant() + "-tokens.zip"))) {
+            for (int i = 0; i < entries.size(); i++) {
+                final var entry = entries.get(i);
+                final var image = QrCodeRenderer.toPng(toQrCode(issue(bulkTokenRequestDto.tenant(), entry).token()), QR_SCALE, QR_BORDER);
+
+                final var crc = new CRC32();
+                crc.update(image);
+                final var zipEntry = new ZipEntry(entry.realm() + "/" + String.format("%0" + digits + "d", i + 1) + "_" + UNSAFE_FILENAME_CHARACTERS.matcher(entry.subject()).replaceAll("_") + ".png");
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(image.length);
+                zipEntry.setCompressedSize(image.length);
+                zipEntry.setCrc(crc.getValue());
+                zipOutputStream.putNextEntry(zipEntry);
+                zipOutputStream.write(image);
+                zipOutputStream.closeEntry();
             }
         }
+    }
+
+    private QrCode toQrCode(final String token) {
+        final var host = depotProperties.getHost();
+        final var base = host.endsWith("/") ? host.substring(0, host.length() - 1) : host;
+        final var url = base + "/#token=" + token;
+        return QrCode.encodeText(url, QrCode.Ecc.LOW);
+    }
 
-        final var byteArrayOutputStream = new ByteArrayOutputStream();
+    /**
+     * Revokes a token of the tenant until it expires, both id and expiry being read from the verified token itself.
+     */
+    public void revoke(final RevokeRequestDto revokeRequestDto) {
+        authorizationService.throwIfAdminPasswordMismatches(revokeRequestDto.tenant(), revokeRequestDto.password());
+
+        final DecodedJWT decodedJWT;
         try {
-            ImageIO.write(result, "png", byteArrayOutputStream);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            decodedJWT = JWT.require(jwtAlgorithm).withIssuer("depot").build().verify(revokeRequestDto.token());
+        } catch (JWTVerificationException e) {
+            throw new InvalidRequestException("token", Strings.EMPTY, "Token is invalid or already expired");
         }
 
-        return byteArrayOutputStream.toByteArray();
+        final var id = decodedJWT.getId();
+        final var expiresAt = decodedJWT.getExpiresAtAsInstant();
+        log.info("Token revocation requested with tenant={} id={} expirationDate={}", revokeRequestDto.tenant(), id, expiresAt);
+
+        if (!revokeRequestDto.tenant().equals(decodedJWT.getClaim("tenant").asString())) {
+            throw new InvalidRequestException("token", Strings.EMPTY, "Token belongs to another tenant");
+        }
+        // Only tokens issued since ids were introduced can be told apart
+        if (id == null || expiresAt == null) {
+            throw new InvalidRequestException("token", Strings.EMPTY, "Token has no id or expiration and cannot be revoked");
+        }
+        if (!tokenRevocationService.revoke(revokeRequestDto.tenant(), id, expiresAt)) {
+            throw new InvalidRequestException("token", id, "Token is already revoked or expired");
+        }
     }
 
-    private String getToken(AccessTokenRequestDto accessTokenRequestDto) {
+    private IssuedToken getToken(AccessTokenRequestDto accessTokenRequestDto) {
         authorizationService.throwIfAdminPasswordMismatches(accessTokenRequestDto.tenant(), accessTokenRequestDto.password());
+        return issue(accessTokenRequestDto.tenant(), accessTokenRequestDto.realm(), accessTokenRequestDto.subject(), accessTokenRequestDto.mode(), accessTokenRequestDto.expirationDate());
+    }
+
+    private IssuedToken issue(final String tenant, final BulkTokenEntryDto entry) {
+        return issue(tenant, entry.realm(), entry.subject(), entry.mode(), entry.expirationDate());
+    }
 
-        log.info("Token requested with tenant={} realm={} subject={} mode={} expirationDate={}",
-                accessTokenRequestDto.tenant(),
-                accessTokenRequestDto.realm(),
-                accessTokenRequestDto.subject(),
-                accessTokenRequestDto.mode(),
-                accessTokenRequestDto.expirationDate());
+    private IssuedToken issue(final String tenant, final String realm, final String subject, final String mode, final Instant expirationDate) {
+        log.info("Token requested with tenant={} realm={} subject={} mode={} expirationDate={}", tenant, realm, subject, mode, expirationDate);
 
-        final var logString = String.format("%s %s %s %s", accessTokenRequestDto.tenant(), accessTokenRequestDto.realm(), accessTokenRequestDto.mode(), accessTokenRequestDto.expirationDate());
-        logService.log(accessTokenRequestDto.tenant(), LogService.EventType.TOKEN, accessTokenRequestDto.subject(), logString);
+        final var id = UUID.randomUUID().toString();
+        final var logString = String.format("%s %s %s %s %s", tenant, realm, mode, expirationDate, id);
+        logService.log(tenant, realm, LogService.EventType.TOKEN, subject, logString);
 
-        return JWT.create()
+        final var token = JWT.create()
                 .withIssuer("depot")
-                .withClaim("tenant", accessTokenRequestDto.tenant())
-                .withClaim("realm", accessTokenRequestDto.realm())
-                .withClaim("mode", accessTokenRequestDto.mode().toLowerCase(Locale.getDefault()))
-                .withSubject(accessTokenRequestDto.subject())
-                .withExpiresAt(accessTokenRequestDto.expirationDate())
-                .sign(Algorithm.HMAC256(depotProperties.getJwtSecret()));
+                .withClaim("tenant", tenant)
+                .withClaim("realm", realm)
+                .withClaim("mode", mode.toLowerCase(Locale.getDefault()))
+                .withSubject(subject)
+                .withExpiresAt(expirationDate)
+                .withJWTId(id)
+                .sign(jwtAlgorithm);
+        return new IssuedToken(token, id);
     }
 
 }
@@ -0,0 +1,352 @@
+package ch.unibas.medizin.depot.service;
+
+import ch.unibas.medizin.depot.util.BloomFilter;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * One time-bounded file of the audit log together with its sidecar index.
+ * <p>
+ * Records are stored one per line as {@code timestamp TAB type TAB realm TAB subject TAB description}. The index keeps
+ * the covered time range, a bit per event type, bloom filters over realms and subjects, and a sparse list of offsets
+ * taken every {@value #INDEX_INTERVAL_BYTES} bytes. Each offset carries the latest timestamp written before it, so
+ * seeking to the last offset whose predecessors are all older than the requested start is exact even though
+ * concurrent requests may enqueue their records slightly out of order.
+ * <p>
+ * The index file records the log length it describes; a log that grew past it (e.g. after a crash) is re-scanned.
+ */
+@NullMarked
+final class AuditSegment {
+
+    private static final Logger log = LoggerFactory.getLogger(AuditSegment.class);
+
+    static final String LOG_SUFFIX = ".log";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final DateTimeFormatter NAME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+
+    private static final int INDEX_VERSION = 1;
+
+    private static final long INDEX_INTERVAL_BYTES = 64 * 1024;
+
+    private static final int BLOOM_BITS = 16 * 1024;
+
+    private static final int BLOOM_HASHES = 5;
+
+    private static final String FIELD_DELIMITER = "\t";
+
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    @FunctionalInterface
+    interface LineVisitor {
+        boolean visit(long offset, int length, LogService.@Nullable AuditEvent event) throws IOException;
+    }
+
+    private final Path logfile;
+
+    private final Instant start;
+
+    private long length;
+
+    private long records;
+
+    private long minTimestamp = Long.MAX_VALUE;
+
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    private int typeMask;
+
+    private BloomFilter realms = new BloomFilter(BLOOM_BITS, BLOOM_HASHES);
+
+    private BloomFilter subjects = new BloomFilter(BLOOM_BITS, BLOOM_HASHES);
+
+    private long[] indexOffsets = new long[16];
+
+    private long[] indexMaxBefore = new long[16];
+
+    private int indexSize;
+
+    private AuditSegment(final Path logfile, final Instant start) {
+        this.logfile = logfile;
+        this.start = start;
+    }
+
+    static Path logfile(final Path directory, final Instant start) {
+        return directory.resolve(NAME_FORMATTER.format(start) + LOG_SUFFIX);
+    }
+
+    static @Nullable Instant startOf(final Path logfile) {
+        final var name = logfile.getFileName().toString();
+        if (!name.endsWith(LOG_SUFFIX)) {
+            return null;
+        }
+        try {
+            return NAME_FORMATTER.parse(name.substring(0, name.length() - LOG_SUFFIX.length()), Instant::from);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Opens the segment at {@code logfile}, reading its index or rebuilding it when missing or stale.
+     */
+    static AuditSegment open(final Path logfile, final Instant start) throws IOException {
+        final var segment = new AuditSegment(logfile, start);
+        final var logLength = Files.exists(logfile) ? Files.size(logfile) : 0;
+
+        if (logLength == 0) {
+            return segment;
+        }
+
+        if (segment.readIndex(logLength)) {
+            return segment;
+        }
+
+        log.info("Rebuilding audit index of {}", logfile);
+        scan(logfile, 0, logLength, (offset, lineLength, event) -> {
+            if (event != null) {
+                segment.record(event, offset);
+            }
+            segment.length = offset + lineLength;
+            return true;
+        });
+        segment.writeIndex();
+        return segment;
+    }
+
+    Path logfile() {
+        return logfile;
+    }
+
+    Instant start() {
+        return start;
+    }
+
+    static String format(final LogService.AuditEvent event) {
+        return event.timestamp() + FIELD_DELIMITER
+                + event.type() + FIELD_DELIMITER
+                + event.realm() + FIELD_DELIMITER
+                + event.subject() + FIELD_DELIMITER
+                + event.description() + "\n";
+    }
+
+    static LogService.@Nullable AuditEvent parse(final String line) {
+        final var fields = line.split(FIELD_DELIMITER, 5);
+        if (fields.length != 5) {
+            return null;
+        }
+        try {
+            return new LogService.AuditEvent(Instant.parse(fields[0]), LogService.EventType.valueOf(fields[1]), fields[2], fields[3], fields[4]);
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Registers a record after its line has been written at {@code offset}.
+     */
+    synchronized void append(final LogService.AuditEvent event, final long offset, final int lineLength) {
+        record(event, offset);
+        length = offset + lineLength;
+    }
+
+    private void record(final LogService.AuditEvent event, final long offset) {
+        final var timestamp = event.timestamp().toEpochMilli();
+
+        if (indexSize == 0 || offset - indexOffsets[indexSize - 1] >= INDEX_INTERVAL_BYTES) {
+            if (indexSize == indexOffsets.length) {
+                indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+                indexMaxBefore = Arrays.copyOf(indexMaxBefore, indexSize * 2);
+            }
+            indexOffsets[indexSize] = offset;
+            indexMaxBefore[indexSize] = maxTimestamp;
+            indexSize++;
+        }
+
+        records++;
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+        typeMask |= 1 << event.type().ordinal();
+        realms.add(event.realm());
+        subjects.add(event.subject());
+    }
+
+    synchronized long length() {
+        return length;
+    }
+
+    synchronized boolean mightMatch(final Instant from, final Instant to, @Nullable final String realm,
+                                    @Nullable final String subject, final Set<LogService.EventType> types) {
+        if (records == 0 || maxTimestamp < from.toEpochMilli() || minTimestamp >= to.toEpochMilli()) {
+            return false;
+        }
+        if (!types.isEmpty() && types.stream().noneMatch(type -> (typeMask & (1 << type.ordinal())) != 0)) {
+            return false;
+        }
+        if (realm != null && !realms.mightContain(realm)) {
+            return false;
+        }
+        return subject == null || subjects.mightContain(subject);
+    }
+
+    /**
+     * Offset from which on records may be at or after {@code from}; every record before it is older.
+     */
+    synchronized long seek(final Instant from) {
+        final var fromMillis = from.toEpochMilli();
+        var low = 0;
+        var high = indexSize - 1;
+        var offset = 0L;
+
+        while (low <= high) {
+            final var middle = (low + high) >>> 1;
+            if (indexMaxBefore[middle] < fromMillis) {
+                offset = indexOffsets[middle];
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return offset;
+    }
+
+    synchronized void writeIndex() throws IOException {
+        final var indexFile = indexFile();
+        final var tmpFile = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), "");
+
+        try (final var outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            outputStream.writeInt(INDEX_VERSION);
+            outputStream.writeLong(length);
+            outputStream.writeLong(records);
+            outputStream.writeLong(minTimestamp);
+            outputStream.writeLong(maxTimestamp);
+            outputStream.writeInt(typeMask);
+            writeBloomFilter(outputStream, realms);
+            writeBloomFilter(outputStream, subjects);
+            outputStream.writeInt(indexSize);
+            for (int i = 0; i < indexSize; i++) {
+                outputStream.writeLong(indexOffsets[i]);
+                outputStream.writeLong(indexMaxBefore[i]);
+            }
+        }
+
+        Files.move(tmpFile, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private boolean readIndex(final long logLength) {
+        try (final var inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile())))) {
+            if (inputStream.readInt() != INDEX_VERSION || inputStream.readLong() != logLength) {
+                return false;
+            }
+            records = inputStream.readLong();
+            minTimestamp = inputStream.readLong();
+            maxTimestamp = inputStream.readLong();
+            typeMask = inputStream.readInt();
+            realms = readBloomFilter(inputStream);
+            subjects = readBloomFilter(inputStream);
+            indexSize = inputStream.readInt();
+            indexOffsets = new long[Math.max(16, indexSize)];
+            indexMaxBefore = new long[Math.max(16, indexSize)];
+            for (int i = 0; i < indexSize; i++) {
+                indexOffsets[i] = inputStream.readLong();
+                indexMaxBefore[i] = inputStream.readLong();
+            }
+            length = logLength;
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            log.warn("Could not read audit index of {}", logfile, e);
+            return false;
+        }
+    }
+
+    private static void writeBloomFilter(final DataOutputStream outputStream, final BloomFilter bloomFilter) throws IOException {
+        final var bits = bloomFilter.toLongArray();
+        outputStream.writeInt(bloomFilter.hashes());
+        outputStream.writeInt(bits.length);
+        for (final var word : bits) {
+            outputStream.writeLong(word);
+        }
+    }
+
+    private static BloomFilter readBloomFilter(final DataInputStream inputStream) throws IOException {
+        final var hashes = inputStream.readInt();
+        final var bits = new long[inputStream.readInt()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = inputStream.readLong();
+        }
+        return BloomFilter.of(bits, hashes);
+    }
+
+    private Path indexFile() {
+        final var name = logfile.getFileName().toString();
+        return logfile.resolveSibling(name.substring(0, name.length() - LOG_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    /**
+     * Visits the complete lines between {@code from} and {@code to}; a trailing line without newline is ignored.
+     */
+    static void scan(final Path logfile, final long from, final long to, final LineVisitor visitor) throws IOException {
+        try (final var channel = FileChannel.open(logfile, StandardOpenOption.READ)) {
+            final var buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+            final var line = new ByteArrayOutputStream(256);
+            var offset = from;
+            var position = from;
+
+            while (position < to) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), to - position));
+                final var read = channel.read(buffer, position);
+                if (read <= 0) {
+                    return;
+                }
+
+                final var bytes = buffer.array();
+                var lineStart = 0;
+                for (int i = 0; i < read; i++) {
+                    if (bytes[i] != '\n') {
+                        continue;
+                    }
+
+                    line.write(bytes, lineStart, i - lineStart);
+                    final var lineEnd = position + i + 1;
+                    if (!visitor.visit(offset, (int) (lineEnd - offset), parse(line.toString(StandardCharsets.UTF_8)))) {
+                        return;
+                    }
+                    line.reset();
+                    offset = lineEnd;
+                    lineStart = i + 1;
+                }
+
+                line.write(bytes, lineStart, read - lineStart);
+                position += read;
+            }
+        }
+    }
+
+}
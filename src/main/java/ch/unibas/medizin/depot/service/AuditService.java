@@ -0,0 +1,56 @@
+package ch.unibas.medizin.depot.service;
+
+import ch.unibas.medizin.depot.dto.AuditEventDto;
+import ch.unibas.medizin.depot.dto.AuditQueryRequestDto;
+import ch.unibas.medizin.depot.dto.AuditStatsDto;
+import ch.unibas.medizin.depot.dto.AuditStatsRequestDto;
+import org.jspecify.annotations.NullMarked;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.function.Consumer;
+
+@Service
+@NullMarked
+public record AuditService(
+        AuthorizationService authorizationService,
+        LogService logService
+) {
+
+    private static final Logger log = LoggerFactory.getLogger(AuditService.class);
+
+    public void query(final AuditQueryRequestDto auditQueryRequestDto, final Consumer<AuditEventDto> consumer) {
+        authorizationService.throwIfAdminPasswordMismatches(auditQueryRequestDto.tenant(), auditQueryRequestDto.password());
+
+        log.info("Audit log queried with tenant={} from={} to={} realm={} subject={} types={}",
+                auditQueryRequestDto.tenant(),
+                auditQueryRequestDto.from(),
+                auditQueryRequestDto.to(),
+                auditQueryRequestDto.realm(),
+                auditQueryRequestDto.subject(),
+                auditQueryRequestDto.types());
+
+        final var types = auditQueryRequestDto.types() == null ? Set.<LogService.EventType>of() : auditQueryRequestDto.types();
+
+        try {
+            logService.query(auditQueryRequestDto.tenant(), auditQueryRequestDto.from(), auditQueryRequestDto.to(),
+                    auditQueryRequestDto.realm(), auditQueryRequestDto.subject(), types,
+                    event -> consumer.accept(new AuditEventDto(event.timestamp(), event.type().name(), event.realm(), event.subject(), event.description())));
+        } catch (IOException e) {
+            log.error("Could not read audit log of tenant {}", auditQueryRequestDto.tenant(), e);
+            throw new UncheckedIOException("Could not read audit log", e);
+        }
+    }
+
+    public AuditStatsDto stats(final AuditStatsRequestDto auditStatsRequestDto) {
+        authorizationService.throwIfAdminPasswordMismatches(auditStatsRequestDto.tenant(), auditStatsRequestDto.password());
+
+        final var stats = logService.stats(auditStatsRequestDto.tenant());
+        return new AuditStatsDto(stats.depth(), stats.written(), stats.dropped());
+    }
+
+}
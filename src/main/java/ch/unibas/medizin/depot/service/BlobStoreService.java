@@ -0,0 +1,212 @@
+package ch.unibas.medizin.depot.service;
+
+import ch.unibas.medizin.depot.config.DepotProperties;
+import jakarta.annotation.PostConstruct;
+import org.jspecify.annotations.NullMarked;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Stores the file contents of deduplicating tenants once per tenant under
+ * {@code <baseDirectory>/.blobs/<tenant>/<xx>/<sha256>}.
+ * <p>
+ * Realm files of such tenants are hard links to their blob, so reading, listing, moving and backing up work exactly
+ * as for other tenants, and the file system's link count is the reference count. A blob whose count dropped to one is
+ * referenced by no realm anymore and gets removed by a sweep that runs {@value #SWEEP_DELAY_SECONDS} seconds after
+ * the first release, collecting whole batches of overwrites and deletes in one pass.
+ */
+@Service
+@NullMarked
+public class BlobStoreService {
+
+    private static final Logger log = LoggerFactory.getLogger(BlobStoreService.class);
+
+    public static final String BLOB_DIRECTORY_NAME = ".blobs";
+
+    private static final long SWEEP_DELAY_SECONDS = 30;
+
+    private static final String LINK_COUNT_ATTRIBUTE = "unix:nlink";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DepotProperties depotProperties;
+
+    private final Path blobDirectory;
+
+    private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicBoolean> pendingSweeps = new ConcurrentHashMap<>();
+
+    private boolean supported;
+
+    public BlobStoreService(final DepotProperties depotProperties) {
+        this.depotProperties = depotProperties;
+        this.blobDirectory = depotProperties.getBaseDirectory().resolve(BLOB_DIRECTORY_NAME);
+    }
+
+    @PostConstruct
+    private void init() {
+        try {
+            Files.createDirectories(blobDirectory);
+            Files.getAttribute(blobDirectory, LINK_COUNT_ATTRIBUTE);
+            supported = true;
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            log.warn("File system of {} has no link counts, deduplication is disabled", blobDirectory);
+            return;
+        }
+
+        depotProperties.getTenants().forEach((tenant, config) -> {
+            if (config.dedup()) {
+                sweep(tenant);
+            }
+        });
+    }
+
+    public boolean enabled(final String tenant) {
+        final var config = depotProperties.getTenants().get(tenant);
+        return supported && config != null && config.dedup();
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static String toHex(final MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static String sha256(final Path file) throws IOException {
+        final var digest = newDigest();
+        final var buffer = new byte[BUFFER_SIZE];
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest);
+    }
+
+    /**
+     * Whether {@code file} already is a link to the blob of {@code sha256}.
+     */
+    public boolean isLinked(final String tenant, final String sha256, final Path file) throws IOException {
+        final var blob = blobFile(tenant, sha256);
+        return Files.exists(blob) && Files.exists(file) && Files.isSameFile(blob, file);
+    }
+
+    /**
+     * Turns {@code content} into the blob of {@code sha256}, or drops it if the blob already exists, and returns a
+     * fresh link to the blob next to {@code content} that the caller moves into place.
+     */
+    public Path link(final String tenant, final String sha256, final Path content) throws IOException {
+        final var blob = blobFile(tenant, sha256);
+        final var link = content.resolveSibling(content.getFileName() + ".link");
+
+        final var lock = lock(tenant);
+        lock.lock();
+        try {
+            if (Files.exists(blob)) {
+                Files.delete(content);
+                log.debug("Content {} already stored", sha256);
+            } else {
+                Files.createDirectories(blob.getParent());
+                Files.move(content, blob, StandardCopyOption.ATOMIC_MOVE);
+            }
+            // Linking under the lock keeps the sweep from removing the blob before it is referenced
+            Files.createLink(link, blob);
+        } finally {
+            lock.unlock();
+        }
+        return link;
+    }
+
+    /**
+     * Notes that links of {@code tenant} may have been removed and schedules a sweep.
+     */
+    public void release(final String tenant) {
+        if (!enabled(tenant)) {
+            return;
+        }
+        final var pending = pendingSweeps.computeIfAbsent(tenant, key -> new AtomicBoolean());
+        if (pending.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("blob-sweep-" + tenant).start(() -> {
+                try {
+                    Thread.sleep(Duration.ofSeconds(SWEEP_DELAY_SECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    pending.set(false);
+                }
+                sweep(tenant);
+            });
+        }
+    }
+
+    /**
+     * Removes every blob of {@code tenant} that is no longer linked from any realm.
+     */
+    public int sweep(final String tenant) {
+        final var tenantDirectory = blobDirectory.resolve(tenant);
+        final var lock = lock(tenant);
+        var removed = 0;
+
+        try (final Stream<Path> files = Files.walk(tenantDirectory)) {
+            for (final var blob : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                lock.lock();
+                try {
+                    if (((Number) Files.getAttribute(blob, LINK_COUNT_ATTRIBUTE)).intValue() <= 1) {
+                        Files.delete(blob);
+                        removed++;
+                    }
+                } catch (NoSuchFileException e) {
+                    log.debug("Blob {} vanished during sweep", blob);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            log.error("Could not sweep blobs of {}", tenant, e);
+            throw new UncheckedIOException("Could not sweep blobs", e);
+        }
+
+        if (removed > 0) {
+            log.info("Removed {} unreferenced blobs of {}", removed, tenant);
+        }
+        return removed;
+    }
+
+    private Path blobFile(final String tenant, final String sha256) {
+        return blobDirectory.resolve(tenant).resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    private ReentrantLock lock(final String tenant) {
+        return locks.computeIfAbsent(tenant, key -> new ReentrantLock());
+    }
+
+}
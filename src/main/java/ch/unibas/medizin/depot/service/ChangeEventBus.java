@@ -0,0 +1,199 @@
+package ch.unibas.medizin.depot.service;
+
+import org.jspecify.annotations.NullMarked;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fans the changes recorded by {@link ChangeJournalService} out to every subscriber of the same realm.
+ * <p>
+ * Publishing never blocks: each subscription buffers at most {@value #SUBSCRIPTION_CAPACITY} changes, and once the
+ * buffer is full it is dropped and marked as overflowed. The subscriber then catches up from the journal, so a slow
+ * client costs disk reads instead of memory.
+ * <p>
+ * Pending changes are merged only where the client ends up in the same state: a {@code PUT} replaces a pending
+ * {@code PUT} of the same path, and a {@code DELETE} drops pending {@code PUT}s at or below its path, as long as no
+ * move or delete touching that path came in between. Moves are never merged away.
+ */
+@Service
+@NullMarked
+public class ChangeEventBus {
+
+    private static final int SUBSCRIPTION_CAPACITY = 1000;
+
+    public record Batch(List<ChangeJournalService.Change> changes, boolean overflowed) {
+    }
+
+    private final Map<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+    public Subscription subscribe(final String tenant, final String realm) {
+        final var key = key(tenant, realm);
+        final var subscription = new Subscription(key);
+        subscriptions.compute(key, (k, realmSubscriptions) -> {
+            final var updated = realmSubscriptions == null ? new CopyOnWriteArraySet<Subscription>() : realmSubscriptions;
+            updated.add(subscription);
+            return updated;
+        });
+        return subscription;
+    }
+
+    public void publish(final String tenant, final String realm, final ChangeJournalService.Change change) {
+        final var realmSubscriptions = subscriptions.get(key(tenant, realm));
+        if (realmSubscriptions != null) {
+            realmSubscriptions.forEach(subscription -> subscription.offer(change));
+        }
+    }
+
+    /**
+     * Marks every subscription of the realm as overflowed, so its subscriber catches up from the journal.
+     */
+    public void expire(final String tenant, final String realm) {
+        final var realmSubscriptions = subscriptions.get(key(tenant, realm));
+        if (realmSubscriptions != null) {
+            realmSubscriptions.forEach(Subscription::expire);
+        }
+    }
+
+    private static String key(final String tenant, final String realm) {
+        return tenant + "/" + realm;
+    }
+
+    private static boolean isAtOrBelow(final String path, final String folder) {
+        return path.equals(folder) || path.startsWith(folder.endsWith("/") ? folder : folder + "/");
+    }
+
+    public final class Subscription implements AutoCloseable {
+
+        private final String key;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Condition available = lock.newCondition();
+
+        private final LinkedHashMap<Long, ChangeJournalService.Change> pending = new LinkedHashMap<>();
+
+        /**
+         * Sequence of the pending {@code PUT} per path that a later change may still replace.
+         */
+        private final HashMap<String, Long> mergeablePuts = new HashMap<>();
+
+        private boolean overflowed;
+
+        private Subscription(final String key) {
+            this.key = key;
+        }
+
+        private void offer(final ChangeJournalService.Change change) {
+            lock.lock();
+            try {
+                if (overflowed) {
+                    return;
+                }
+                switch (change.type()) {
+                    case PUT -> {
+                        final var previous = mergeablePuts.remove(change.path());
+                        if (previous != null) {
+                            pending.remove(previous);
+                        }
+                    }
+                    case DELETE, SOFT_DELETE -> {
+                        dropMergeablePuts(change.path(), true);
+                    }
+                    case MOVE -> {
+                        dropMergeablePuts(change.path(), false);
+                        if (change.toPath() != null) {
+                            dropMergeablePuts(change.toPath(), false);
+                        }
+                    }
+                    case BACKUP -> {
+                        // Backups add a hidden file of their own and never replace anything
+                    }
+                }
+
+                if (pending.size() >= SUBSCRIPTION_CAPACITY) {
+                    pending.clear();
+                    mergeablePuts.clear();
+                    overflowed = true;
+                } else {
+                    // Appending keeps the buffer in journal order
+                    pending.put(change.sequence(), change);
+                    if (change.type() == ChangeJournalService.ChangeType.PUT) {
+                        mergeablePuts.put(change.path(), change.sequence());
+                    }
+                }
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void expire() {
+            lock.lock();
+            try {
+                pending.clear();
+                mergeablePuts.clear();
+                overflowed = true;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Stops merging into the pending {@code PUT}s at or below {@code path}, also removing them from the buffer if
+         * {@code remove} is set.
+         */
+        private void dropMergeablePuts(final String path, final boolean remove) {
+            final var iterator = mergeablePuts.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final var entry = iterator.next();
+                if (isAtOrBelow(entry.getKey(), path)) {
+                    if (remove) {
+                        pending.remove(entry.getValue());
+                    }
+                    iterator.remove();
+                }
+            }
+        }
+
+        /**
+         * Waits up to {@code timeout} for changes and hands out everything buffered so far.
+         */
+        public Batch poll(final Duration timeout) throws InterruptedException {
+            lock.lock();
+            try {
+                var nanos = timeout.toNanos();
+                while (pending.isEmpty() && !overflowed && nanos > 0) {
+                    nanos = available.awaitNanos(nanos);
+                }
+                final var batch = new Batch(List.copyOf(pending.values()), overflowed);
+                pending.clear();
+                mergeablePuts.clear();
+                overflowed = false;
+                return batch;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            subscriptions.computeIfPresent(key, (k, realmSubscriptions) -> {
+                realmSubscriptions.remove(this);
+                return realmSubscriptions.isEmpty() ? null : realmSubscriptions;
+            });
+        }
+
+    }
+
+}
@@ -0,0 +1,617 @@
+package ch.unibas.medizin.depot.service;
+
+import ch.unibas.medizin.depot.config.DepotProperties;
+import ch.unibas.medizin.depot.exception.CursorExpiredException;
+import jakarta.annotation.PreDestroy;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Keeps an append-only journal of the changes {@link DepotService} makes to each realm under
+ * {@code <baseDirectory>/.journal/<tenant>/<realm>}.
+ * <p>
+ * Every change gets the next sequence number of its realm and is appended as one line to the active segment, which
+ * is sealed after {@value #SEGMENT_MAX_ENTRIES} entries. Once more than {@value #MAX_SEALED_SEGMENTS} segments are
+ * sealed they are compacted in the background into one without the changes a later change undoes completely, such as
+ * an overwritten {@code PUT} or the contents of a deleted folder. Moves are never compacted away, nor anything that happened at
+ * their source before, so a client resuming from any cursor still ends up with the same state and merely skips
+ * intermediate versions.
+ * <p>
+ * Every journaled change is also published on the {@link ChangeEventBus}.
+ * <p>
+ * The journal is not forced to disk, so a crash may lose entries whose sequence numbers are then handed out again. Every
+ * cursor therefore carries the epoch of its realm's journal, which is renewed when the journal is reopened after an
+ * unclean shutdown or an append fails. Clients holding a cursor of an earlier epoch get a {@link CursorExpiredException}
+ * and have to rescan instead of silently skipping the changes in question.
+ */
+@Service
+@NullMarked
+public class ChangeJournalService {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangeJournalService.class);
+
+    public static final String JOURNAL_DIRECTORY_NAME = ".journal";
+
+    private static final int SEGMENT_MAX_ENTRIES = 10_000;
+
+    private static final int MAX_SEALED_SEGMENTS = 8;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String FIELD_DELIMITER = "\t";
+
+    private static final String STATE_FILE_NAME = "journal.properties";
+
+    public enum ChangeType {
+        PUT, DELETE, SOFT_DELETE, MOVE, BACKUP
+    }
+
+    public record Change(long epoch, long sequence, Instant timestamp, ChangeType type, String path, @Nullable String toPath) {
+
+        public Cursor cursor() {
+            return new Cursor(epoch, sequence);
+        }
+
+    }
+
+    public record Changes(List<Change> changes, Cursor cursor, boolean more) {
+    }
+
+    /**
+     * Position after a change, formatted as {@code <epoch>.<sequence>}. {@link #START} ({@code 0}) stands for the
+     * oldest change still journaled in whatever epoch is current.
+     */
+    public record Cursor(long epoch, long sequence) {
+
+        public static final Cursor START = new Cursor(0, 0);
+
+        public static Cursor parse(final String cursor) {
+            if (cursor.equals("0")) {
+                return START;
+            }
+            final var separator = cursor.indexOf('.');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Cursor " + cursor + " has no epoch");
+            }
+            return new Cursor(Long.parseLong(cursor.substring(0, separator)), Long.parseLong(cursor.substring(separator + 1)));
+        }
+
+        @Override
+        public String toString() {
+            return equals(START) ? "0" : epoch + "." + sequence;
+        }
+
+    }
+
+    private final Path journalDirectory;
+
+    private final ChangeEventBus changeEventBus;
+
+    private final Map<String, RealmJournal> journals = new ConcurrentHashMap<>();
+
+    public ChangeJournalService(final DepotProperties depotProperties, final ChangeEventBus changeEventBus) {
+        this.journalDirectory = depotProperties.getBaseDirectory().resolve(JOURNAL_DIRECTORY_NAME);
+        this.changeEventBus = changeEventBus;
+    }
+
+    public void record(final String tenant, final String realm, final ChangeType type, final String path, @Nullable final String toPath) {
+        final var journal = journal(tenant, realm);
+        journal.lock.writeLock().lock();
+        try {
+            // Publishing under the lock hands the changes to subscribers in sequence order
+            changeEventBus.publish(tenant, realm, journal.append(type, path, toPath));
+        } catch (IOException e) {
+            // The change itself succeeded, a new epoch makes every client that could have missed it rescan
+            log.error("Could not journal {} {} in {}/{}", type, path, tenant, realm, e);
+            journal.expire();
+            changeEventBus.expire(tenant, realm);
+        } finally {
+            journal.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} changes after {@code since}, or none and the current cursor if {@code since} is null.
+     */
+    public Changes changes(final String tenant, final String realm, @Nullable final Cursor since, final int limit) {
+        final var journal = journal(tenant, realm);
+        journal.lock.readLock().lock();
+        try {
+            if (since == null) {
+                return new Changes(List.of(), new Cursor(journal.epoch, journal.lastSequence), false);
+            }
+            if (!since.equals(Cursor.START) && (since.epoch() != journal.epoch || since.sequence() < 0 || since.sequence() > journal.lastSequence)) {
+                throw new CursorExpiredException(since.toString());
+            }
+            return journal.read(since.sequence(), limit);
+        } catch (IOException e) {
+            log.error("Could not read journal of {}/{}", tenant, realm, e);
+            throw new UncheckedIOException("Could not read journal", e);
+        } finally {
+            journal.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits for running compactions and marks every journal as cleanly closed, so its cursors stay valid.
+     */
+    @PreDestroy
+    public void close() {
+        journals.values().forEach(journal -> {
+            // The compaction needs the lock to swap its result in
+            journal.awaitCompaction();
+            journal.lock.writeLock().lock();
+            try {
+                journal.closeCleanly();
+            } finally {
+                journal.lock.writeLock().unlock();
+            }
+        });
+    }
+
+    private RealmJournal journal(final String tenant, final String realm) {
+        return journals.computeIfAbsent(tenant + "/" + realm, key -> {
+            try {
+                return new RealmJournal(journalDirectory.resolve(tenant).resolve(realm));
+            } catch (IOException e) {
+                log.error("Could not open journal of {}/{}", tenant, realm, e);
+                throw new UncheckedIOException("Could not open journal", e);
+            }
+        });
+    }
+
+    private static Path segmentFile(final Path directory, final long firstSequence) {
+        return directory.resolve(String.format("%020d", firstSequence) + SEGMENT_SUFFIX);
+    }
+
+    private static long firstSequenceOf(final Path segment) {
+        final var name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static List<Path> segments(final Path directory) throws IOException {
+        try (final Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().matches("\\d{20}" + SEGMENT_SUFFIX)).sorted().toList();
+        } catch (NoSuchFileException e) {
+            return List.of();
+        }
+    }
+
+    private static String format(final Change change) {
+        return change.sequence() + FIELD_DELIMITER
+                + change.timestamp() + FIELD_DELIMITER
+                + change.type() + FIELD_DELIMITER
+                + change.path() + FIELD_DELIMITER
+                + (change.toPath() == null ? "" : change.toPath()) + "\n";
+    }
+
+    private static @Nullable Change parse(final String line, final long epoch) {
+        final var fields = line.split(FIELD_DELIMITER, -1);
+        if (fields.length != 5) {
+            return null;
+        }
+        try {
+            return new Change(epoch, Long.parseLong(fields[0]), Instant.parse(fields[1]), ChangeType.valueOf(fields[2]), fields[3], fields[4].isEmpty() ? null : fields[4]);
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static List<Change> readSegment(final Path segment, final long epoch) throws IOException {
+        final var changes = new ArrayList<Change>();
+        try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final var change = parse(line, epoch);
+                if (change != null) {
+                    changes.add(change);
+                }
+            }
+        }
+        return changes;
+    }
+
+    private static final class RealmJournal {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private final Path directory;
+
+        private long epoch;
+
+        /**
+         * Whether the state file says the journal was closed cleanly, it is rewritten before the first append.
+         */
+        private boolean clean;
+
+        private long lastSequence;
+
+        private @Nullable Path activeSegment;
+
+        private int activeEntries;
+
+        private @Nullable FileChannel channel;
+
+        private volatile @Nullable Thread compaction;
+
+        RealmJournal(final Path directory) throws IOException {
+            this.directory = directory;
+
+            final var state = new Properties();
+            try (final var inputStream = Files.newInputStream(directory.resolve(STATE_FILE_NAME))) {
+                state.load(inputStream);
+            } catch (NoSuchFileException e) {
+                log.debug("No journal state in {}", directory);
+            }
+            final var previousEpoch = parseEpoch(state.getProperty("epoch", "0"));
+            clean = previousEpoch != 0 && Boolean.parseBoolean(state.getProperty("clean"));
+            if (clean) {
+                epoch = previousEpoch;
+            } else {
+                // After a crash the last entries may be gone and their sequence numbers handed out again
+                epoch = Math.max(System.currentTimeMillis(), previousEpoch + 1);
+                if (previousEpoch != 0) {
+                    log.warn("Journal in {} was not closed cleanly, starting epoch {}", directory, epoch);
+                }
+                Files.createDirectories(directory);
+                saveState();
+            }
+
+            final var segments = segments(directory);
+            if (!segments.isEmpty()) {
+                final var newest = segments.getLast();
+                truncateIncompleteLine(newest);
+                final var changes = readSegment(newest, epoch);
+                activeSegment = newest;
+                activeEntries = changes.size();
+                lastSequence = changes.isEmpty() ? firstSequenceOf(newest) - 1 : changes.getLast().sequence();
+            }
+        }
+
+        private static long parseEpoch(final String epoch) {
+            try {
+                return Long.parseLong(epoch);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        private void saveState() throws IOException {
+            final var state = new Properties();
+            state.setProperty("epoch", Long.toString(epoch));
+            state.setProperty("clean", Boolean.toString(clean));
+
+            final var tmpFile = Files.createTempFile(directory, "state", "");
+            try (OutputStream outputStream = Files.newOutputStream(tmpFile, StandardOpenOption.WRITE, StandardOpenOption.SYNC)) {
+                state.store(outputStream, null);
+            }
+            Files.move(tmpFile, directory.resolve(STATE_FILE_NAME), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        /**
+         * Cuts off a line left incomplete by a crash, so the next change starts on a fresh line.
+         */
+        private static void truncateIncompleteLine(final Path segment) throws IOException {
+            try (final var fileChannel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                var position = fileChannel.size();
+                final var buffer = ByteBuffer.allocate(1);
+                while (position > 0) {
+                    buffer.clear();
+                    fileChannel.read(buffer, position - 1);
+                    if (buffer.get(0) == '\n') {
+                        break;
+                    }
+                    position--;
+                }
+                if (position < fileChannel.size()) {
+                    log.warn("Truncating incomplete journal line in {}", segment);
+                    fileChannel.truncate(position);
+                }
+            }
+        }
+
+        Change append(final ChangeType type, final String path, @Nullable final String toPath) throws IOException {
+            if (clean) {
+                // Anything appended from here on may be lost in a crash
+                clean = false;
+                saveState();
+            }
+            if (activeSegment == null || activeEntries >= SEGMENT_MAX_ENTRIES) {
+                roll();
+            }
+
+            final var change = new Change(epoch, lastSequence + 1, Instant.now(), type, path, toPath);
+            final var buffer = ByteBuffer.wrap(format(change).getBytes(StandardCharsets.UTF_8));
+            final var fileChannel = channel();
+            while (buffer.hasRemaining()) {
+                fileChannel.write(buffer);
+            }
+
+            lastSequence = change.sequence();
+            activeEntries++;
+            return change;
+        }
+
+        /**
+         * Starts a new epoch after a change could not be journaled. Its sequence number is skipped and the next change
+         * starts a new segment, whatever part of the failed line reached the disk.
+         */
+        void expire() {
+            final var fileChannel = channel;
+            if (fileChannel != null) {
+                try {
+                    fileChannel.force(false);
+                } catch (IOException e) {
+                    log.debug("Could not force journal segment in {}", directory, e);
+                }
+            }
+            closeChannel();
+            activeSegment = null;
+            lastSequence++;
+            clean = false;
+            epoch = Math.max(System.currentTimeMillis(), epoch + 1);
+            log.warn("Journal in {} starts epoch {}", directory, epoch);
+            try {
+                saveState();
+            } catch (IOException e) {
+                // The journal is marked as not closed cleanly, so the next start renews the epoch anyway
+                log.error("Could not save journal state in {}", directory, e);
+            }
+        }
+
+        void closeCleanly() {
+            final var fileChannel = channel;
+            if (!clean && fileChannel != null) {
+                try {
+                    fileChannel.force(false);
+                } catch (IOException e) {
+                    log.error("Could not force journal segment in {}", directory, e);
+                    closeChannel();
+                    return;
+                }
+            }
+            closeChannel();
+            if (!clean) {
+                clean = true;
+                try {
+                    saveState();
+                } catch (IOException e) {
+                    clean = false;
+                    log.error("Could not save journal state in {}", directory, e);
+                }
+            }
+        }
+
+        void awaitCompaction() {
+            final var thread = compaction;
+            if (thread != null) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        Changes read(final long since, final int limit) throws IOException {
+            final var segments = segments(directory);
+            final var changes = new ArrayList<Change>(Math.min(limit, 1024));
+            var cursor = since;
+
+            // Start with the last segment that begins at or before the first wanted sequence
+            var first = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                if (firstSequenceOf(segments.get(i)) <= since + 1) {
+                    first = i;
+                }
+            }
+
+            for (int i = first; i < segments.size(); i++) {
+                try (BufferedReader reader = Files.newBufferedReader(segments.get(i), StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        final var change = parse(line, epoch);
+                        // Skipping everything up to the cursor also hides duplicates left by an interrupted compaction
+                        if (change == null || change.sequence() <= cursor) {
+                            continue;
+                        }
+                        if (changes.size() == limit) {
+                            return new Changes(changes, new Cursor(epoch, cursor), true);
+                        }
+                        changes.add(change);
+                        cursor = change.sequence();
+                    }
+                } catch (NoSuchFileException e) {
+                    log.debug("Journal segment {} vanished while reading", segments.get(i));
+                }
+            }
+
+            return new Changes(changes, new Cursor(epoch, cursor), false);
+        }
+
+        private void roll() throws IOException {
+            // Only the active segment is forced on a clean shutdown
+            final var fileChannel = channel;
+            if (fileChannel != null) {
+                fileChannel.force(false);
+            }
+            closeChannel();
+            Files.createDirectories(directory);
+            activeSegment = segmentFile(directory, lastSequence + 1);
+            activeEntries = 0;
+
+            final var sealed = new ArrayList<>(segments(directory));
+            sealed.remove(activeSegment);
+            final var running = compaction;
+            // Segments left over while another compaction runs are picked up by the next roll
+            if (sealed.size() > MAX_SEALED_SEGMENTS && (running == null || !running.isAlive())) {
+                final var snapshot = List.copyOf(sealed);
+                compaction = Thread.ofVirtual().name("journal-compaction").start(() -> compact(snapshot));
+            }
+        }
+
+        /**
+         * Merges the sealed segments without holding the lock, which is only taken to swap the result in. Sealed
+         * segments are never written again, so the snapshot stays valid.
+         */
+        private void compact(final List<Path> sealed) {
+            Path tmpFile = null;
+            try {
+                final var changes = new ArrayList<Change>();
+                for (final var segment : sealed) {
+                    changes.addAll(readSegment(segment, 0));
+                }
+
+                final var kept = supersede(changes);
+
+                final var lines = new StringBuilder();
+                kept.forEach(change -> lines.append(format(change)));
+
+                tmpFile = Files.createTempFile(directory, "compaction", "");
+                Files.writeString(tmpFile, lines, StandardCharsets.UTF_8, StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+
+                lock.writeLock().lock();
+                try {
+                    Files.move(tmpFile, sealed.getFirst(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    for (final var segment : sealed.subList(1, sealed.size())) {
+                        Files.deleteIfExists(segment);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+
+                log.info("Compacted {} journal segments in {} from {} to {} changes", sealed.size(), directory, changes.size(), kept.size());
+            } catch (IOException e) {
+                log.error("Could not compact journal segments in {}", directory, e);
+                if (tmpFile != null) {
+                    try {
+                        Files.deleteIfExists(tmpFile);
+                    } catch (IOException ex) {
+                        log.debug("Could not remove {}", tmpFile, ex);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Drops the changes whose effect a later change undoes completely, walking backwards from the newest.
+         * <p>
+         * A {@code PUT} or {@code BACKUP} is superseded by a later change of the same path, or by a later
+         * {@code DELETE} of it or a folder above it; a {@code DELETE} only by the latter. Moves are always kept, and a
+         * move forgets what was superseded at, above or below its source, as the earlier changes there describe
+         * what the move carried to its target.
+         */
+        private static List<Change> supersede(final List<Change> changes) {
+            final var replacedPaths = new HashSet<String>();
+            final var replacedFolders = new HashSet<String>();
+            final var kept = new ArrayList<Change>();
+            for (int i = changes.size() - 1; i >= 0; i--) {
+                final var change = changes.get(i);
+                final var path = change.path();
+                switch (change.type()) {
+                    case PUT, BACKUP -> {
+                        if (!replacedPaths.contains(path) && !isBelowAny(path, replacedFolders)) {
+                            kept.add(change);
+                        }
+                        replacedPaths.add(path);
+                    }
+                    case DELETE, SOFT_DELETE -> {
+                        if (!isBelowAny(path, replacedFolders)) {
+                            kept.add(change);
+                        }
+                        replacedFolders.add(path);
+                    }
+                    case MOVE -> {
+                        kept.add(change);
+                        replacedPaths.removeIf(candidate -> related(candidate, path));
+                        replacedFolders.removeIf(candidate -> related(candidate, path));
+                        if (change.toPath() != null) {
+                            replacedPaths.add(change.toPath());
+                        }
+                    }
+                }
+            }
+            Collections.reverse(kept);
+            return kept;
+        }
+
+        /**
+         * Whether {@code path} is one of {@code folders} or lies below one of them.
+         */
+        private static boolean isBelowAny(final String path, final Set<String> folders) {
+            if (folders.isEmpty()) {
+                return false;
+            }
+            var candidate = path;
+            while (true) {
+                if (folders.contains(candidate)) {
+                    return true;
+                }
+                final var slash = candidate.lastIndexOf('/');
+                if (slash <= 0) {
+                    return false;
+                }
+                candidate = candidate.substring(0, slash);
+            }
+        }
+
+        private static boolean related(final String a, final String b) {
+            return a.equals(b) || a.startsWith(b + "/") || b.startsWith(a + "/");
+        }
+
+        private FileChannel channel() throws IOException {
+            var fileChannel = channel;
+            if (fileChannel == null) {
+                final var segment = activeSegment;
+                if (segment == null) {
+                    throw new IllegalStateException("No active journal segment");
+                }
+                fileChannel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                channel = fileChannel;
+            }
+            return fileChannel;
+        }
+
+        void closeChannel() {
+            final var fileChannel = channel;
+            channel = null;
+            if (fileChannel != null) {
+                try {
+                    fileChannel.close();
+                } catch (IOException e) {
+                    log.debug("Could not close journal segment in {}", directory, e);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+package ch.unibas.medizin.depot.service;
+
+import org.apache.tika.Tika;
+import org.jspecify.annotations.NullMarked;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects content types with Tika and remembers them per file, validated against size and modification time,
+ * so repeated downloads do not open the file an extra time for its magic bytes.
+ * <p>
+ * Entries sit in a concurrent map, so downloads never wait for each other here. Once it holds {@value #MAX_ENTRIES}
+ * files, arbitrary entries are dropped until a quarter is free again. Writes drop the entry of their file; only folder moves
+ * and deletes scan the map for the entries below the folder.
+ */
+@Service
+@NullMarked
+public class ContentTypeService {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentTypeService.class);
+
+    public static final int PREFIX_LENGTH = 64 * 1024;
+
+    private static final int MAX_ENTRIES = 50_000;
+
+    private static final Tika TIKA = new Tika();
+
+    private final Map<Path, CachedContentType> contentTypes = new ConcurrentHashMap<>();
+
+    private record CachedContentType(long size, long modified, String contentType) {
+    }
+
+    public String detect(final Path file, final BasicFileAttributes attributes, final boolean byExtension) {
+        if (byExtension) {
+            return TIKA.detect(file.getFileName().toString());
+        }
+
+        final var key = file.toAbsolutePath().normalize();
+        final var cached = contentTypes.get(key);
+        if (cached != null && cached.size() == attributes.size() && cached.modified() == modifiedOf(attributes)) {
+            return cached.contentType();
+        }
+
+        String contentType;
+        try {
+            contentType = TIKA.detect(file);
+        } catch (IOException e) {
+            log.debug("Could not detect content type for {}", file);
+            contentType = MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        }
+
+        remember(key, new CachedContentType(attributes.size(), modifiedOf(attributes), contentType));
+        return contentType;
+    }
+
+    /**
+     * Seeds the cache from the leading bytes of an upload, so the first download needs no detection either.
+     */
+    public void store(final Path file, final BasicFileAttributes attributes, final byte[] prefix) {
+        final var contentType = TIKA.detect(prefix, file.getFileName().toString());
+        remember(file.toAbsolutePath().normalize(), new CachedContentType(attributes.size(), modifiedOf(attributes), contentType));
+    }
+
+    public void invalidate(final Path file) {
+        contentTypes.remove(file.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Drops the entries of every file below {@code folder}, for folders that were moved or deleted.
+     */
+    public void invalidateFolder(final Path folder) {
+        final var key = folder.toAbsolutePath().normalize();
+        contentTypes.keySet().removeIf(candidate -> candidate.startsWith(key));
+    }
+
+    private void remember(final Path key, final CachedContentType cachedContentType) {
+        if (contentTypes.size() >= MAX_ENTRIES) {
+            // Files still in use are simply detected again on their next download
+            final var iterator = contentTypes.keySet().iterator();
+            while (contentTypes.size() > MAX_ENTRIES * 3 / 4 && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        contentTypes.put(key, cachedContentType);
+    }
+
+    private static long modifiedOf(final BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+}
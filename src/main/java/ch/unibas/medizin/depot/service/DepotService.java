@@ -1,47 +1,126 @@
 package ch.unibas.medizin.depot.service;
 
 import ch.unibas.medizin.depot.config.DepotProperties;
+import ch.unibas.medizin.depot.dto.BatchOperationDto;
+import ch.unibas.medizin.depot.dto.BatchResponseDto;
+import ch.unibas.medizin.depot.dto.BatchResultDto;
+import ch.unibas.medizin.depot.dto.ChangeDto;
+import ch.unibas.medizin.depot.dto.ChangesDto;
+import ch.unibas.medizin.depot.dto.DigestDto;
+import ch.unibas.medizin.depot.dto.ExtractEntryDto;
+import ch.unibas.medizin.depot.dto.ExtractResponseDto;
 import ch.unibas.medizin.depot.dto.FileDto;
 import ch.unibas.medizin.depot.dto.PutFileResponseDto;
+import ch.unibas.medizin.depot.dto.UploadSessionDto;
+import ch.unibas.medizin.depot.exception.CursorExpiredException;
 import ch.unibas.medizin.depot.exception.DestinationAlreadyExistsException;
 import ch.unibas.medizin.depot.exception.FileAlreadyExistsAsFolderException;
 import ch.unibas.medizin.depot.exception.FileNotFoundException;
 import ch.unibas.medizin.depot.exception.FolderAlreadyExistsAsFileException;
+import ch.unibas.medizin.depot.exception.InvalidRequestException;
 import ch.unibas.medizin.depot.exception.PathNotFoundException;
+import ch.unibas.medizin.depot.security.DepotPrincipal;
 import ch.unibas.medizin.depot.security.JWTAuthorizationFilter;
+import ch.unibas.medizin.depot.util.ArchiveReader;
 import ch.unibas.medizin.depot.util.DepotUtil;
+import ch.unibas.medizin.depot.util.HashingInputStream;
+import ch.unibas.medizin.depot.util.IncrementalMurmur3;
+import ch.unibas.medizin.depot.util.PrefixCapturingInputStream;
 import jakarta.annotation.PostConstruct;
-import org.apache.commons.codec.digest.MurmurHash3;
 import org.apache.logging.log4j.util.Strings;
-import org.apache.tika.Tika;
 import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.util.FileSystemUtils;
-import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @Service
 @NullMarked
 public record DepotService(
         DepotProperties depotProperties,
-        LogService logService
+        LogService logService,
+        HashCacheService hashCacheService,
+        UploadSessionService uploadSessionService,
+        ContentTypeService contentTypeService,
+        FolderDigestService folderDigestService,
+        ChangeJournalService changeJournalService,
+        ChangeEventBus changeEventBus,
+        BlobStoreService blobStoreService,
+        HotFileCacheService hotFileCacheService
 ) {
 
     private static final Logger log = LoggerFactory.getLogger(DepotService.class);
 
-    private static final Tika TIKA = new Tika();
+    private static final int TREE_PARALLELISM = 16;
+
+    private static final int TREE_QUEUE_CAPACITY = 1024;
+
+    private static final long TREE_POLL_MILLIS = 50;
+
+    private static final int ARCHIVE_BUFFER_SIZE = 64 * 1024;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "avif",
+            "mp3", "m4a", "aac", "ogg", "opus", "flac",
+            "mp4", "m4v", "mov", "mkv", "webm", "avi",
+            "zip", "gz", "tgz", "bz2", "xz", "zst", "7z", "rar",
+            "docx", "xlsx", "pptx", "odt", "ods", "odp", "epub");
+
+    private static final int EXTRACT_PARALLELISM = 8;
+
+    private static final int EXTRACT_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int MAX_EXTRACT_ENTRIES = 100000;
+
+    private static final String INVALID_ENTRY_DETAIL = "Invalid entry name";
+
+    private static final Pattern LEADING_CURRENT_FOLDER = Pattern.compile("^(\\./)+");
+
+    private static final int BATCH_PARALLELISM = 16;
+
+    private static final String INVALID_PATH_DETAIL = "must only contain letters, digits and the following chars . _ - @ + /";
+
+    private static final int EVENTS_REPLAY_PAGE_SIZE = 1000;
+
+    private static final Duration EVENTS_HEARTBEAT_INTERVAL = Duration.ofSeconds(15);
+
+    private static final Duration EVENTS_MAX_DURATION = Duration.ofMinutes(30);
 
     @PostConstruct
     private void init() {
@@ -53,55 +132,407 @@ public record DepotService(
         }
     }
 
+    public record ListPage(List<FileDto> entries, @Nullable String nextCursor) {
+    }
+
     public List<FileDto> list(final String path, final boolean hash) {
+        final var entries = new ArrayList<FileDto>();
+        list(path, hash, entries::add);
+        return entries;
+    }
+
+    /**
+     * Passes the entries to {@code consumer} in directory order as they are read, without collecting them.
+     */
+    public void list(final String path, final boolean hash, final Consumer<FileDto> consumer) {
+        final var tokenData = getTokenData();
+        listDirectory(tokenData, path, directoryStream -> {
+            for (final var entry : directoryStream) {
+                if (!entry.getFileName().toString().startsWith(".")) {
+                    final var fileDto = toFileDto(tokenData, entry, hash);
+                    if (fileDto != null) {
+                        consumer.accept(fileDto);
+                    }
+                }
+            }
+        });
+
+        if (hash) {
+            hashCacheService.flush(tokenData.basePath());
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} entries ordered by name that come after {@code cursor}. Only the current page is
+     * held in memory, and attributes and hashes are read for its entries alone.
+     */
+    public ListPage list(final String path, final boolean hash, final int limit, @Nullable final String cursor) {
         final var tokenData = getTokenData();
+        final var after = cursor == null ? null : decodeCursor(cursor);
+        final var names = new PriorityQueue<String>(limit + 1, Comparator.reverseOrder());
+        final var more = new boolean[1];
+
+        final var directory = listDirectory(tokenData, path, directoryStream -> {
+            for (final var entry : directoryStream) {
+                final var name = entry.getFileName().toString();
+                if (name.startsWith(".") || (after != null && name.compareTo(after) <= 0)) {
+                    continue;
+                }
+                names.offer(name);
+                if (names.size() > limit) {
+                    names.poll();
+                    more[0] = true;
+                }
+            }
+        });
+
+        final var sortedNames = new ArrayList<>(names);
+        sortedNames.sort(Comparator.naturalOrder());
+
+        final var entries = new ArrayList<FileDto>(sortedNames.size());
+        for (final var name : sortedNames) {
+            final var fileDto = toFileDto(tokenData, directory.resolve(name), hash);
+            if (fileDto != null) {
+                entries.add(fileDto);
+            }
+        }
+
+        if (hash) {
+            hashCacheService.flush(tokenData.basePath());
+        }
+
+        return new ListPage(entries, more[0] && !sortedNames.isEmpty() ? encodeCursor(sortedNames.getLast()) : null);
+    }
+
+    @FunctionalInterface
+    private interface DirectoryVisitor {
+        void visit(DirectoryStream<Path> directoryStream);
+    }
+
+    private Path listDirectory(final DepotPrincipal tokenData, final String path, final DirectoryVisitor visitor) {
         final var normalizedPath = DepotUtil.normalizePath(path);
         final var fullPath = tokenData.basePath().resolve(normalizedPath);
 
-        logService.log(tokenData.tenant, LogService.EventType.LIST, tokenData.subject(), fullPath.toString());
+        logService.log(tokenData.tenant(), tokenData.realm(), LogService.EventType.LIST, tokenData.subject(), fullPath.toString());
         log.info("{} list {}", tokenData.subject(), fullPath);
 
-        final var entries = new ArrayList<FileDto>();
+        final DirectoryStream<Path> directoryStream;
+        try {
+            directoryStream = Files.newDirectoryStream(fullPath);
+        } catch (IOException e) {
+            if (normalizedPath.toString().isBlank()) {
+                return fullPath;
+            }
+            log.info("No such path {}", fullPath);
+            throw new PathNotFoundException(path);
+        }
+
+        try (directoryStream) {
+            visitor.visit(directoryStream);
+        } catch (IOException | DirectoryIteratorException e) {
+            log.error("Could not list {}", fullPath, e);
+        }
+
+        return fullPath;
+    }
+
+    private @Nullable FileDto toFileDto(final DepotPrincipal tokenData, final Path entry, final boolean hash) {
+        try {
+            final var basicFileAttributes = Files.readAttributes(entry, BasicFileAttributes.class);
+            final var isDirectory = basicFileAttributes.isDirectory();
+            String hashValue = Strings.EMPTY;
+            if (hash) {
+                hashValue = isDirectory
+                        ? folderDigestService.digest(tokenData.basePath(), entry)
+                        : hashCacheService.hash(tokenData.basePath(), entry, basicFileAttributes);
+            }
+            return new FileDto(
+                    entry.getFileName().toString(),
+                    isDirectory ? FileDto.FileType.FOLDER : FileDto.FileType.FILE,
+                    isDirectory ? 0 : basicFileAttributes.size(),
+                    basicFileAttributes.lastModifiedTime().toInstant(),
+                    hashValue
+            );
+        } catch (IOException e) {
+            log.error("Could not read attributes of {}", entry);
+            return null;
+        }
+    }
+
+    private static String encodeCursor(final String name) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(final String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRequestException("cursor", cursor, "is not a valid cursor");
+        }
+    }
+
+    /**
+     * Walks the subtree below {@code path} and passes every entry to {@code consumer}, named by its path relative to
+     * {@code path}. A folder is always reported before its content, otherwise the order is unspecified.
+     * <p>
+     * Folders are read on virtual threads, at most {@value #TREE_PARALLELISM} at a time. Entries are handed to the
+     * calling thread through a bounded queue, so a slow consumer throttles the walk instead of filling the heap.
+     * The walk does not descend below {@code maxDepth} levels and stops after {@code maxEntries} entries.
+     */
+    public void tree(final String path, final boolean hash, final int maxDepth, final int maxEntries, final Consumer<FileDto> consumer) {
+        final var tokenData = getTokenData();
+        final var normalizedPath = DepotUtil.normalizePath(path);
+        final var fullPath = tokenData.basePath().resolve(normalizedPath);
+
+        logService.log(tokenData.tenant(), tokenData.realm(), LogService.EventType.TREE, tokenData.subject(), fullPath.toString());
+        log.info("{} tree {}", tokenData.subject(), fullPath);
 
-        try (final var fileList = Files.list(fullPath)) {
-            fileList.filter(entry -> !entry.getFileName().toString().startsWith(".")).forEach(entry -> {
-                try {
-                    final var basicFileAttributes = Files.readAttributes(entry, BasicFileAttributes.class);
-                    final var isDirectory = Files.isDirectory(entry);
-                    String hashValue = Strings.EMPTY;
-                    if (hash && !isDirectory) {
-                        final var hash128 = MurmurHash3.hash128x64(Files.readAllBytes(entry));
-                        hashValue = String.format("%016x%016x", hash128[0], hash128[1]);
+        if (!Files.isDirectory(fullPath)) {
+            if (normalizedPath.toString().isBlank()) {
+                return;
+            }
+            log.info("No such path {}", fullPath);
+            throw new PathNotFoundException(path);
+        }
+
+        final var walk = new TreeWalk(tokenData, hash, maxDepth, maxEntries);
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            try {
+                walk.submit(executor, fullPath, "", 1);
+                walk.drain(consumer);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        if (hash) {
+            hashCacheService.flush(tokenData.basePath());
+        }
+    }
+
+    private final class TreeWalk {
+
+        private final DepotPrincipal tokenData;
+
+        private final boolean hash;
+
+        private final int maxDepth;
+
+        private final AtomicInteger remainingEntries;
+
+        private final AtomicInteger pendingFolders = new AtomicInteger();
+
+        private final Semaphore permits = new Semaphore(TREE_PARALLELISM);
+
+        private final BlockingQueue<FileDto> results = new ArrayBlockingQueue<>(TREE_QUEUE_CAPACITY);
+
+        TreeWalk(final DepotPrincipal tokenData, final boolean hash, final int maxDepth, final int maxEntries) {
+            this.tokenData = tokenData;
+            this.hash = hash;
+            this.maxDepth = maxDepth;
+            this.remainingEntries = new AtomicInteger(maxEntries);
+        }
+
+        void submit(final ExecutorService executor, final Path folder, final String prefix, final int depth) {
+            pendingFolders.incrementAndGet();
+            try {
+                executor.execute(() -> {
+                    try {
+                        visit(executor, folder, prefix, depth);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        // Children were submitted before, so the count only reaches zero once the whole walk is done
+                        pendingFolders.decrementAndGet();
                     }
-                    entries.add(
-                            new FileDto(
-                                    entry.getFileName().toString(),
-                                    isDirectory ? FileDto.FileType.FOLDER : FileDto.FileType.FILE,
-                                    isDirectory ? 0 : basicFileAttributes.size(),
-                                    basicFileAttributes.lastModifiedTime().toInstant(),
-                                    hashValue
-                            )
-                    );
-                } catch (IOException e) {
-                    log.error("Could not read attributes of {}", fullPath);
+                });
+            } catch (RejectedExecutionException e) {
+                // The walk was aborted
+                pendingFolders.decrementAndGet();
+            }
+        }
+
+        private void visit(final ExecutorService executor, final Path folder, final String prefix, final int depth) throws InterruptedException {
+            permits.acquire();
+            try (final var directoryStream = Files.newDirectoryStream(folder)) {
+                for (final var entry : directoryStream) {
+                    final var name = entry.getFileName().toString();
+                    if (name.startsWith(".")) {
+                        continue;
+                    }
+                    if (remainingEntries.getAndDecrement() <= 0) {
+                        return;
+                    }
+
+                    final var fileDto = toFileDto(tokenData, entry, hash);
+                    if (fileDto == null) {
+                        continue;
+                    }
+
+                    results.put(new FileDto(prefix + name, fileDto.type(), fileDto.size(), fileDto.modified(), fileDto.hash()));
+
+                    if (fileDto.type() == FileDto.FileType.FOLDER && depth < maxDepth && !Files.isSymbolicLink(entry)) {
+                        submit(executor, entry, prefix + name + "/", depth + 1);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                log.error("Could not list {}", folder, e);
+            } finally {
+                permits.release();
+            }
+        }
+
+        void drain(final Consumer<FileDto> consumer) throws InterruptedException {
+            while (true) {
+                final var fileDto = results.poll(TREE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (fileDto != null) {
+                    consumer.accept(fileDto);
+                } else if (pendingFolders.get() == 0 && results.isEmpty()) {
+                    return;
                 }
+            }
+        }
+
+    }
+
+    public interface ArchiveTarget {
+
+        /**
+         * Called once the folder has been found, with the name the archive should be offered under.
+         */
+        OutputStream open(String filename) throws IOException;
+
+    }
+
+    /**
+     * Streams the folder {@code path} as a ZIP archive, leaving out hidden entries such as backups and soft-deleted
+     * files and not following symbolic links.
+     * <p>
+     * Files whose extension marks them as already compressed are stored with deflate level 0, which keeps their CRC
+     * and sizes in a data descriptor after the content; a true STORED entry would need both before the content and
+     * thus a second pass over every file. Archives and entries beyond 4 GB are written as ZIP64.
+     */
+    public void archive(final String path, final ArchiveTarget target) throws IOException {
+        final var tokenData = getTokenData();
+        final var normalizedPath = DepotUtil.normalizePath(path);
+        final var fullPath = tokenData.basePath().resolve(normalizedPath);
+
+        logService.log(tokenData.tenant(), tokenData.realm(), LogService.EventType.ARCHIVE, tokenData.subject(), fullPath.toString());
+        log.info("{} archive {}", tokenData.subject(), fullPath);
+
+        if (!Files.isDirectory(fullPath, LinkOption.NOFOLLOW_LINKS)) {
+            log.info("No such folder {}", fullPath);
+            throw new PathNotFoundException(path);
+        }
+
+        final var folderName = normalizedPath.toString().isBlank() ? tokenData.realm() : String.valueOf(fullPath.getFileName());
+        final var buffer = new byte[ARCHIVE_BUFFER_SIZE];
+
+        try (final var zipOutputStream = new ZipOutputStream(target.open(folderName + ".zip"))) {
+            Files.walkFileTree(fullPath, new SimpleFileVisitor<>() {
+
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attributes) throws IOException {
+                    if (dir.equals(fullPath)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (isHidden(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    // Keeps empty folders in the archive
+                    final var entry = new ZipEntry(entryName(dir) + "/");
+                    entry.setLastModifiedTime(attributes.lastModifiedTime());
+                    zipOutputStream.putNextEntry(entry);
+                    zipOutputStream.closeEntry();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) throws IOException {
+                    if (!attributes.isRegularFile() || isHidden(file)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    final InputStream inputStream;
+                    try {
+                        inputStream = Files.newInputStream(file, LinkOption.NOFOLLOW_LINKS);
+                    } catch (NoSuchFileException e) {
+                        log.debug("{} vanished while archiving", file);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    try (inputStream) {
+                        final var entry = new ZipEntry(entryName(file));
+                        entry.setLastModifiedTime(attributes.lastModifiedTime());
+                        zipOutputStream.setLevel(isCompressed(file) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+                        zipOutputStream.putNextEntry(entry);
+                        int read;
+                        while ((read = inputStream.read(buffer)) != -1) {
+                            zipOutputStream.write(buffer, 0, read);
+                        }
+                        zipOutputStream.closeEntry();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                    log.debug("Could not archive {}", file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                private String entryName(final Path entry) {
+                    return fullPath.relativize(entry).toString().replace(entry.getFileSystem().getSeparator(), "/");
+                }
+
             });
-        } catch (IOException e) {
+        }
+    }
+
+    private static boolean isHidden(final Path path) {
+        return String.valueOf(path.getFileName()).startsWith(".");
+    }
+
+    private static boolean isCompressed(final Path file) {
+        final var name = String.valueOf(file.getFileName()).toLowerCase(Locale.ROOT);
+        final var dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1));
+    }
+
+    public DigestDto digest(final String path) {
+        final var tokenData = getTokenData();
+        final var normalizedPath = DepotUtil.normalizePath(path);
+        final var fullPath = tokenData.basePath().resolve(normalizedPath);
+
+        logService.log(tokenData.tenant(), tokenData.realm(), LogService.EventType.DIGEST, tokenData.subject(), fullPath.toString());
+        log.info("{} digest {}", tokenData.subject(), fullPath);
+
+        if (!Files.isDirectory(fullPath)) {
             if (normalizedPath.toString().isBlank()) {
-                return List.of();
+                return new DigestDto("", IncrementalMurmur3.toHex(new IncrementalMurmur3().finish()));
             }
             log.info("No such path {}", fullPath);
             throw new PathNotFoundException(path);
         }
 
-        return entries;
+        try {
+            final var digest = folderDigestService.digest(tokenData.basePath(), fullPath);
+            return new DigestDto(normalizedPath.toString(), digest);
+        } catch (IOException e) {
+            log.error("Could not compute digest of {}", fullPath, e);
+            throw new RuntimeException("Could not compute digest.");
+        } finally {
+            hashCacheService.flush(tokenData.basePath());
+        }
     }
 
     public ResponseEntity<Resource> get(final String file) {
         final var normalizedFile = DepotUtil.normalizePath(file);
         final var tokenData = getTokenData();
         final var fullPath = tokenData.basePath().resolve(normalizedFile).normalize().toAbsolutePath();
-        final var basePath = tokenData.basePath().normalize().toAbsolutePath();
+        final var basePath = tokenData.basePath();
 
         // Ensure fullPath is still contained in basePath
         if (!fullPath.startsWith(basePath)) {
@@ -109,7 +540,7 @@ public record DepotService(
             throw new FileNotFoundException(file); // or use a dedicated exception
         }
 
-        logService.log(tokenData.tenant, LogService.EventType.GET, tokenData.subject(), fullPath.toString());
+        logService.log(tokenData.tenant(), tokenData.realm(), LogService.EventType.GET, tokenData.subject(), fullPath.toString());
         log.info("{} get {}", tokenData.subject(), fullPath);
 
         if (Files.isDirectory(fullPath)) {
@@ -123,23 +554,314 @@ public record DepotService(
             throw new FileNotFoundException(file);
         }
 
-        String contentType;
+        final BasicFileAttributes attributes;
         try {
-            contentType = TIKA.detect(fullPath);
+            attributes = Files.readAttributes(fullPath, BasicFileAttributes.class);
         } catch (IOException e) {
-            log.debug("Could not detect content type for {}", fullPath);
-            contentType = MediaType.APPLICATION_OCTET_STREAM_VALUE;
+            log.info("Could not read attributes of {}", fullPath);
+            throw new FileNotFoundException(file);
         }
 
-        return ResponseEntity.ok().contentType(MediaType.parseMediaType(contentType)).body(resource);
+        // A deduplicated file is a link to a blob whose modification time is that of the first upload of its content,
+        // so it may lie before the content it replaced and must not be used to validate caches
+        final var dedup = blobStoreService.enabled(tokenData.tenant());
+
+        var cachedFile = hotFileCacheService.lookup(fullPath, attributes);
+        if (cachedFile == null) {
+            final var tenantConfig = tokenData.tenantConfig();
+            final var byExtension = tenantConfig != null && tenantConfig.contentTypeByExtension();
+            final var contentType = contentTypeService.detect(fullPath, attributes, byExtension);
+            final String eTag;
+            try {
+                eTag = eTag(basePath, fullPath, attributes, dedup);
+            } catch (IOException e) {
+                log.info("Could not hash {}", fullPath);
+                throw new FileNotFoundException(file);
+            }
+
+            cachedFile = hotFileCacheService.offer(fullPath, attributes, contentType, eTag);
+            if (cachedFile == null) {
+                return download(contentType, eTag, dedup ? null : attributes, resource);
+            }
+        }
+
+        return download(cachedFile.contentType(), cachedFile.eTag(), dedup ? null : attributes, cachedFile.resource());
+    }
+
+    private static ResponseEntity<Resource> download(final String contentType, final String eTag, @Nullable final BasicFileAttributes attributes, final Resource resource) {
+        // ETag and Last-Modified let Spring answer conditional requests with 304 and Range requests with 206
+        final var response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(contentType))
+                .eTag(eTag)
+                .cacheControl(CacheControl.noCache().cachePrivate());
+        if (attributes != null) {
+            response.lastModified(attributes.lastModifiedTime().toInstant());
+        }
+        return response.body(resource);
+    }
+
+    /**
+     * Derives the ETag from size and modification time. Deduplicated files get the content hash instead, their
+     * modification time being the blob's. Either way the ETag only depends on the file, not on what a cache holds.
+     */
+    private String eTag(final Path basePath, final Path fullPath, final BasicFileAttributes attributes, final boolean dedup) throws IOException {
+        if (dedup) {
+            return hashCacheService.hash(basePath, fullPath, attributes);
+        }
+        return Long.toHexString(attributes.size()) + "-" + Long.toHexString(attributes.lastModifiedTime().toMillis());
     }
 
     public PutFileResponseDto put(final MultipartFile file, final String path, final boolean hash) {
+        return put(file, path, Objects.requireNonNull(file.getOriginalFilename()), hash);
+    }
+
+    public PutFileResponseDto put(final InputStreamSource content, final String path, final String filename, final boolean hash) {
+        final var tokenData = getTokenData();
+        final var target = resolveUploadTarget(tokenData, path, filename);
+
+        logService.log(tokenData.tenant(), tokenData.realm(), LogService.EventType.PUT, tokenData.subject(), target.fullPathAndFile().toString());
+        log.info("{} put {}", tokenData.subject(), target.fullPathAndFile());
+
+        Path tmpFile = null;
+        try {
+            final SpooledFile spooled;
+            try (final var inputStream = content.getInputStream()) {
+                spooled = spool(tokenData, inputStream);
+            }
+            tmpFile = spooled.tmpFile();
+
+            final var storedAttributes = commit(tokenData, target, tmpFile, spooled.bytes(), spooled.contentHash(), spooled.sha256());
+            tmpFile = null; // Successfully moved, don't clean up in finally
+
+            // The leading bytes already went through memory, so detect the content type now instead of on the first download
+            contentTypeService.store(target.fullPathAndFile(), storedAttributes, spooled.prefix());
+
+            return new PutFileResponseDto(spooled.bytes(), hash ? spooled.contentHash() : "-");
+        } catch (Exception e) {
+            log.error("Could not store the file", e);
+            throw new RuntimeException("Could not store the file. " + e.getMessage());
+        } finally {
+            deleteTmpFile(tmpFile);
+        }
+    }
+
+    private record SpooledFile(Path tmpFile, long bytes, String contentHash, @Nullable String sha256, byte[] prefix) {
+    }
+
+    /**
+     * Copies {@code content} into a new tmp file. The content is hashed while it streams into the tmp file, so neither
+     * the response hash nor the backup comparison needs another pass over the data. The tmp file is removed again if
+     * the copy fails.
+     */
+    private SpooledFile spool(final DepotPrincipal tokenData, final InputStream content) throws IOException {
+        final var tmpFile = Files.createTempFile(depotProperties.getBaseDirectory().resolve("tmp"), "depot", "");
+        try {
+            // Deduplicating tenants address their blobs by SHA-256, taken in the same pass
+            final var sha256 = blobStoreService.enabled(tokenData.tenant()) ? BlobStoreService.newDigest() : null;
+            try (final var prefixInputStream = new PrefixCapturingInputStream(content, ContentTypeService.PREFIX_LENGTH);
+                 final var inputStream = new HashingInputStream(sha256 == null ? prefixInputStream : new DigestInputStream(prefixInputStream, sha256))) {
+                final var bytes = Files.copy(inputStream, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+                return new SpooledFile(tmpFile, bytes, IncrementalMurmur3.toHex(inputStream.hash()),
+                        sha256 == null ? null : BlobStoreService.toHex(sha256), prefixInputStream.prefix());
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteTmpFile(tmpFile);
+            throw e;
+        }
+    }
+
+    private static void deleteTmpFile(@Nullable final Path tmpFile) {
+        // Clean up temp file if still exists (upload failed)
+        if (tmpFile != null) {
+            try {
+                Files.deleteIfExists(tmpFile);
+                log.debug("Cleaned up temporary file: {}", tmpFile);
+            } catch (IOException e) {
+                log.error("Failed to clean up temporary file: {}", tmpFile, e);
+            }
+        }
+    }
+
+    /**
+     * Stores the files of a ZIP or (gzip-compressed) TAR archive below {@code path}, each with the same atomic commit
+     * and backup semantics as {@code /put}, and reports the outcome per entry.
+     * <p>
+     * The archive is read once, front to back. Entries up to {@value #EXTRACT_BUFFER_SIZE} bytes are held in memory and
+     * written on virtual threads while reading continues, at most {@value #EXTRACT_PARALLELISM} at a time; larger
+     * entries are streamed to a tmp file by the reading thread and only committed in parallel. Entries repeating the
+     * name of an earlier entry, as in appended TARs, are committed after it, so the last one wins. Entries with invalid
+     * names, links and entries beyond {@value #MAX_EXTRACT_ENTRIES} are rejected without affecting the others, and
+     * folders are created along with their files.
+     */
+    public ExtractResponseDto extract(final String path, final InputStreamSource content) {
         final var tokenData = getTokenData();
         final var normalizedPath = DepotUtil.normalizePath(path);
-        final var basePath = tokenData.basePath().normalize().toAbsolutePath();
+        final var fullPath = tokenData.basePath().resolve(normalizedPath);
+
+        logService.log(tokenData.tenant(), tokenData.realm(), LogService.EventType.EXTRACT, tokenData.subject(), fullPath.toString());
+        log.info("{} extract into {}", tokenData.subject(), fullPath);
+
+        final var results = new ArrayList<CompletableFuture<ExtractEntryDto>>();
+        // Appended TARs repeat names, the entries of one target are committed one after the other in archive order
+        final var lastByTarget = new HashMap<Path, CompletableFuture<ExtractEntryDto>>();
+        final var permits = new Semaphore(EXTRACT_PARALLELISM);
+        String archiveError = null;
+
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            try (final var archive = ArchiveReader.open(content.getInputStream())) {
+                ArchiveReader.Entry entry;
+                while ((entry = archive.next()) != null) {
+                    if (entry.directory()) {
+                        continue;
+                    }
+
+                    final var name = entry.name();
+                    if (results.size() >= MAX_EXTRACT_ENTRIES) {
+                        results.add(CompletableFuture.completedFuture(rejected(name, "more than " + MAX_EXTRACT_ENTRIES + " entries")));
+                        break;
+                    }
+                    if (!entry.regularFile()) {
+                        results.add(CompletableFuture.completedFuture(rejected(name, "not a regular file")));
+                        continue;
+                    }
+                    // tar writes "./name" when archiving the current folder
+                    final var relativeName = LEADING_CURRENT_FOLDER.matcher(name).replaceFirst("");
+                    if (!DepotUtil.isValidPath(relativeName) || !DepotUtil.isValidAbsolutPath(relativeName)) {
+                        results.add(CompletableFuture.completedFuture(rejected(name, INVALID_ENTRY_DETAIL)));
+                        continue;
+                    }
+
+                    final var entryPath = DepotUtil.normalizePath(relativeName);
+                    final var parent = entryPath.getParent();
+                    final var folder = (parent == null ? normalizedPath : normalizedPath.resolve(parent)).toString();
+                    final var filename = Objects.requireNonNull(entryPath.getFileName()).toString();
+
+                    permits.acquire();
+                    try {
+                        final var head = archive.content().readNBytes(EXTRACT_BUFFER_SIZE + 1);
+                        final var spooled = head.length > EXTRACT_BUFFER_SIZE
+                                ? spool(tokenData, new SequenceInputStream(new ByteArrayInputStream(head), archive.content()))
+                                : null;
+                        final var previous = lastByTarget.get(entryPath);
+                        final var result = (previous == null ? CompletableFuture.completedFuture(null) : previous.handle((ignored, failure) -> null))
+                                .thenApplyAsync(ignored -> {
+                                    try {
+                                        return extractEntry(tokenData, name, folder, filename, spooled, head);
+                                    } finally {
+                                        permits.release();
+                                    }
+                                }, executor);
+                        lastByTarget.put(entryPath, result);
+                        results.add(result);
+                    } catch (IOException | RuntimeException e) {
+                        permits.release();
+                        throw e;
+                    }
+                }
+            } catch (IOException e) {
+                log.info("Could not read archive extracted into {}", fullPath, e);
+                archiveError = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                archiveError = "interrupted";
+            }
+            // Chained entries are only handed to the executor once their predecessor is done, so wait before closing it
+            CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).join();
+        }
+
+        if (archiveError != null && results.isEmpty()) {
+            throw new InvalidRequestException("body", "", "is not a readable ZIP or TAR archive");
+        }
+
+        final var entries = new ArrayList<ExtractEntryDto>(results.size() + 1);
+        for (final var result : results) {
+            entries.add(result.resultNow());
+        }
+        if (archiveError != null) {
+            entries.add(new ExtractEntryDto("", "FAILED", 0, "Archive could not be read to the end: " + archiveError));
+        }
+
+        final var stored = (int) entries.stream().filter(entry -> entry.status().equals("STORED")).count();
+        final var rejected = (int) entries.stream().filter(entry -> entry.status().equals("REJECTED")).count();
+        log.info("{} extracted {} of {} entries into {}", tokenData.subject(), stored, entries.size(), fullPath);
+        return new ExtractResponseDto(stored, rejected, entries.size() - stored - rejected, entries);
+    }
+
+    private ExtractEntryDto extractEntry(final DepotPrincipal tokenData, final String name, final String folder, final String filename,
+                                         @Nullable final SpooledFile spooled, final byte[] content) {
+        Path tmpFile = spooled == null ? null : spooled.tmpFile();
+        try {
+            final var target = resolveUploadTarget(tokenData, folder, filename);
+            final var file = spooled != null ? spooled : spool(tokenData, new ByteArrayInputStream(content));
+            tmpFile = file.tmpFile();
+
+            final var storedAttributes = commit(tokenData, target, tmpFile, file.bytes(), file.contentHash(), file.sha256());
+            tmpFile = null;
+
+            contentTypeService.store(target.fullPathAndFile(), storedAttributes, file.prefix());
+            return new ExtractEntryDto(name, "STORED", file.bytes(), null);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not extract {}", name, e);
+            return new ExtractEntryDto(name, "FAILED", 0, e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+        } finally {
+            deleteTmpFile(tmpFile);
+        }
+    }
+
+    private static ExtractEntryDto rejected(final String name, final String detail) {
+        return new ExtractEntryDto(name, "REJECTED", 0, detail);
+    }
+
+    public UploadSessionDto createUpload(final String path, final String filename) {
+        final var tokenData = getTokenData();
+        final var target = resolveUploadTarget(tokenData, path, filename);
+        final var normalizedPath = DepotUtil.normalizePath(path).toString();
+
+        final UploadSessionService.Session session;
+        try {
+            session = uploadSessionService.create(tokenData.tenant(), tokenData.realm(), normalizedPath, filename);
+        } catch (IOException e) {
+            log.error("Could not create upload session", e);
+            throw new RuntimeException("Could not create upload session.");
+        }
+
+        log.info("{} upload {} started for {}", tokenData.subject(), session.id(), target.fullPathAndFile());
+        return toUploadSessionDto(session);
+    }
+
+    public UploadSessionDto getUpload(final UUID id) {
+        final var tokenData = getTokenData();
+        return toUploadSessionDto(uploadSessionService.get(id, tokenData.tenant(), tokenData.realm()));
+    }
+
+    public UploadSessionDto appendUpload(final UUID id, final long offset, final InputStreamSource content) {
+        final var tokenData = getTokenData();
+        final var session = uploadSessionService.append(id, tokenData.tenant(), tokenData.realm(), offset, content);
+        log.debug("{} upload {} at offset {}", tokenData.subject(), id, session.offset());
+        return toUploadSessionDto(session);
+    }
+
+    public PutFileResponseDto finishUpload(final UUID id, final boolean hash) {
+        final var tokenData = getTokenData();
+        return uploadSessionService.finish(id, tokenData.tenant(), tokenData.realm(), (session, partFile, contentHash) -> {
+            final var target = resolveUploadTarget(tokenData, session.path(), session.filename());
+
+            logService.log(tokenData.tenant(), tokenData.realm(), LogService.EventType.PUT, tokenData.subject(), target.fullPathAndFile().toString());
+            log.info("{} put {} from upload {}", tokenData.subject(), target.fullPathAndFile(), id);
+
+            commit(tokenData, target, partFile, session.offset(), contentHash, null);
+            return new PutFileResponseDto(session.offset(), hash ? contentHash : "-");
+        });
+    }
+
+    private record UploadTarget(Path basePath, Path fullPath, Path fullPathAndFile) {
+    }
+
+    private UploadTarget resolveUploadTarget(final DepotPrincipal tokenData, final String path, final String filename) {
+        final var normalizedPath = DepotUtil.normalizePath(path);
+        final var basePath = tokenData.basePath();
         final var fullPath = tokenData.basePath().resolve(normalizedPath).normalize().toAbsolutePath();
-        final var fullPathAndFile = fullPath.resolve(Objects.requireNonNull(file.getOriginalFilename())).normalize().toAbsolutePath();
+        final var fullPathAndFile = fullPath.resolve(filename).normalize().toAbsolutePath();
 
         // Ensure the resolved file stays within the tenant base
         if (!fullPathAndFile.startsWith(basePath)) {
@@ -147,9 +869,6 @@ public record DepotService(
             throw new IllegalArgumentException("Invalid file path");
         }
 
-        logService.log(tokenData.tenant, LogService.EventType.PUT, tokenData.subject(), fullPathAndFile.toString());
-        log.info("{} put {}", tokenData.subject(), fullPathAndFile);
-
         if (Files.isRegularFile(fullPath)) {
             log.error("Folder {} already exists as file", fullPath);
             throw new FolderAlreadyExistsAsFileException(path);
@@ -157,7 +876,7 @@ public record DepotService(
 
         if (Files.isDirectory(fullPathAndFile)) {
             log.error("File {} already exists as folder", fullPathAndFile);
-            throw new FileAlreadyExistsAsFolderException(file.getOriginalFilename());
+            throw new FileAlreadyExistsAsFolderException(filename);
         }
 
         try {
@@ -169,61 +888,93 @@ public record DepotService(
             throw new RuntimeException("Could not initialize folder for upload.");
         }
 
-        Path tmpFile = null;
-        try {
-            tmpFile = Files.createTempFile(depotProperties.getBaseDirectory().resolve("tmp"), "depot", "");
-            CopyOption[] options = {StandardCopyOption.REPLACE_EXISTING};
-
-            final var bytes = Files.copy(file.getInputStream(), tmpFile, options);
-
-            final var tenantConfig = depotProperties.getTenants().get(tokenData.tenant());
-            final var backup = tenantConfig != null && tenantConfig.backup();
-
-            // Only read the file back and hash it when the result is actually needed:
-            // either the caller requested a hash, or a backup overwrite has to compare content.
-            final var needHash = hash || (backup && Files.exists(fullPathAndFile));
-            final long[] hash128 = needHash ? MurmurHash3.hash128x64(Files.readAllBytes(tmpFile)) : null;
-            final var hashValue = hash ? String.format("%016x%016x", hash128[0], hash128[1]) : "-";
-
-            if (backup && Files.exists(fullPathAndFile)) {
-                final var existingHash128 = MurmurHash3.hash128x64(Files.readAllBytes(fullPathAndFile));
-                if (!Arrays.equals(hash128, existingHash128)) {
-                    final var fileName = fullPathAndFile.getFileName().toString();
-                    final var backupDir = fullPath.resolve("." + fileName);
-                    Files.createDirectories(backupDir);
-                    final long existingBackups;
-                    try (var backups = Files.list(backupDir)) {
-                        existingBackups = backups.count();
-                    }
-                    final var backupFile = backupDir.resolve(fileName + "_" + (existingBackups + 1));
-                    Files.move(fullPathAndFile, backupFile, StandardCopyOption.ATOMIC_MOVE);
-                    log.info("Backed up {} to {}", fullPathAndFile, backupFile);
-                }
-            }
+        return new UploadTarget(basePath, fullPath, fullPathAndFile);
+    }
 
-            Files.move(tmpFile, fullPathAndFile, StandardCopyOption.ATOMIC_MOVE);
-            tmpFile = null; // Successfully moved, don't clean up in finally
+    /**
+     * Moves a completely written tmp file into place, backing up the previous version for backup tenants.
+     * <p>
+     * For deduplicating tenants the tmp file becomes (or is dropped in favour of) the blob of its SHA-256, which is
+     * taken from the file if {@code sha256} is null, and the target is a link to it. Re-uploading the content the
+     * target already links to changes nothing.
+     */
+    private BasicFileAttributes commit(final DepotPrincipal tokenData, final UploadTarget target, final Path tmpFile, final long bytes, final String contentHash,
+                                       @Nullable final String sha256) throws IOException {
+        final var basePath = target.basePath();
+        final var fullPath = target.fullPath();
+        final var fullPathAndFile = target.fullPathAndFile();
 
-            return new PutFileResponseDto(bytes, hashValue);
-        } catch (Exception e) {
-            log.error("Could not store the file", e);
-            throw new RuntimeException("Could not store the file. " + e.getMessage());
-        } finally {
-            // Clean up temp file if still exists (upload failed)
-            if (tmpFile != null) {
-                try {
-                    Files.deleteIfExists(tmpFile);
-                    log.debug("Cleaned up temporary file: {}", tmpFile);
-                } catch (IOException e) {
-                    log.error("Failed to clean up temporary file: {}", tmpFile, e);
+        final var backup = tokenData.backup();
+
+        final var dedup = blobStoreService.enabled(tokenData.tenant());
+        final var blobHash = dedup ? (sha256 != null ? sha256 : BlobStoreService.sha256(tmpFile)) : null;
+        if (blobHash != null && blobStoreService.isLinked(tokenData.tenant(), blobHash, fullPathAndFile)) {
+            Files.delete(tmpFile);
+            log.info("{} already holds the uploaded content", fullPathAndFile);
+            return Files.readAttributes(fullPathAndFile, BasicFileAttributes.class);
+        }
+
+        if (backup && Files.exists(fullPathAndFile)) {
+            final var existingAttributes = Files.readAttributes(fullPathAndFile, BasicFileAttributes.class);
+            // Different sizes always mean different content; only equal sizes need the (usually cached) hash
+            if (existingAttributes.size() != bytes
+                    || !hashCacheService.hash(basePath, fullPathAndFile, existingAttributes).equals(contentHash)) {
+                final var fileName = fullPathAndFile.getFileName().toString();
+                final var backupDir = fullPath.resolve("." + fileName);
+                Files.createDirectories(backupDir);
+                final long existingBackups;
+                try (var backups = Files.list(backupDir)) {
+                    existingBackups = backups.count();
                 }
+                final var backupFile = backupDir.resolve(fileName + "_" + (existingBackups + 1));
+                Files.move(fullPathAndFile, backupFile, StandardCopyOption.ATOMIC_MOVE);
+                log.info("Backed up {} to {}", fullPathAndFile, backupFile);
+                changeJournalService.record(tokenData.tenant(), tokenData.realm(), ChangeJournalService.ChangeType.BACKUP, relativePath(basePath, fullPathAndFile), null);
             }
         }
+
+        if (blobHash != null) {
+            final var replaced = Files.exists(fullPathAndFile);
+            final var link = blobStoreService.link(tokenData.tenant(), blobHash, tmpFile);
+            try {
+                Files.move(link, fullPathAndFile, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(link);
+            }
+            if (replaced) {
+                blobStoreService.release(tokenData.tenant());
+            }
+        } else {
+            Files.move(tmpFile, fullPathAndFile, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        final var storedAttributes = Files.readAttributes(fullPathAndFile, BasicFileAttributes.class);
+        hashCacheService.invalidate(basePath, fullPathAndFile);
+        hashCacheService.store(basePath, fullPathAndFile, storedAttributes, contentHash);
+        contentTypeService.invalidate(fullPathAndFile);
+        hotFileCacheService.invalidate(fullPathAndFile);
+        folderDigestService.invalidate(basePath, fullPathAndFile);
+        changeJournalService.record(tokenData.tenant(), tokenData.realm(), ChangeJournalService.ChangeType.PUT, relativePath(basePath, fullPathAndFile), null);
+        return storedAttributes;
+    }
+
+    private static UploadSessionDto toUploadSessionDto(final UploadSessionService.Session session) {
+        return new UploadSessionDto(session.id().toString(), session.offset());
     }
 
     public void move(final String fromPath, final String toPath) {
         final var tokenData = getTokenData();
-        final var basePath = tokenData.basePath().normalize().toAbsolutePath();
+        final var description = move(tokenData, fromPath, toPath);
+
+        logService.log(tokenData.tenant(), tokenData.realm(), LogService.EventType.MOVE, tokenData.subject(), description);
+        log.info("{} move {}", tokenData.subject(), description);
+    }
+
+    /**
+     * @return the audit description of the move
+     */
+    private String move(final DepotPrincipal tokenData, final String fromPath, final String toPath) {
+        final var basePath = tokenData.basePath();
         final var fullFromPath = tokenData.basePath().resolve(DepotUtil.normalizePath(fromPath)).normalize().toAbsolutePath();
         final var fullToPath = tokenData.basePath().resolve(DepotUtil.normalizePath(toPath)).normalize().toAbsolutePath();
 
@@ -253,36 +1004,313 @@ public record DepotService(
                 Files.createDirectories(parent);
             }
             Files.move(fullFromPath, fullToPath, StandardCopyOption.ATOMIC_MOVE);
+            final var folder = Files.isDirectory(fullToPath);
+            hashCacheService.invalidate(basePath, fullFromPath);
+            hashCacheService.invalidate(basePath, fullToPath);
+            if (folder) {
+                contentTypeService.invalidateFolder(fullFromPath);
+                contentTypeService.invalidateFolder(fullToPath);
+                hotFileCacheService.invalidateFolder(fullFromPath);
+                hotFileCacheService.invalidateFolder(fullToPath);
+            } else {
+                contentTypeService.invalidate(fullFromPath);
+                contentTypeService.invalidate(fullToPath);
+                hotFileCacheService.invalidate(fullFromPath);
+                hotFileCacheService.invalidate(fullToPath);
+            }
+            folderDigestService.invalidate(basePath, fullFromPath);
+            folderDigestService.invalidate(basePath, fullToPath);
+            changeJournalService.record(tokenData.tenant(), tokenData.realm(), ChangeJournalService.ChangeType.MOVE,
+                    relativePath(basePath, fullFromPath), relativePath(basePath, fullToPath));
         } catch (IOException e) {
             log.error("Could not move {} to {}", fullFromPath, fullToPath, e);
             throw new RuntimeException("Could not move file or folder.");
         }
 
-        logService.log(tokenData.tenant, LogService.EventType.MOVE, tokenData.subject(), fullFromPath + " -> " + fullToPath);
-        log.info("{} move {} -> {}", tokenData.subject(), fullFromPath, fullToPath);
+        return fullFromPath + " -> " + fullToPath;
     }
 
     public void delete(final String path) {
-        final var normalizedFile = DepotUtil.normalizePath(path);
         final var tokenData = getTokenData();
+        final var description = delete(tokenData, path);
+
+        logService.log(tokenData.tenant(), tokenData.realm(), LogService.EventType.DELETE, tokenData.subject(), description);
+        log.info("{} delete {}", tokenData.subject(), description);
+    }
+
+    /**
+     * @return the audit description of the deletion
+     */
+    private String delete(final DepotPrincipal tokenData, final String path) {
+        final var normalizedFile = DepotUtil.normalizePath(path);
         final var fullPath = tokenData.basePath().resolve(normalizedFile);
 
-        final var tenantConfig = depotProperties.getTenants().get(tokenData.tenant());
-        final var softDelete = tenantConfig != null && tenantConfig.softDelete();
+        final var softDelete = tokenData.softDelete();
 
         try {
+            final var existed = Files.exists(fullPath);
+            final var folder = Files.isDirectory(fullPath);
             if (softDelete) {
                 softDelete(fullPath);
             } else {
                 FileSystemUtils.deleteRecursively(fullPath);
+                blobStoreService.release(tokenData.tenant());
+            }
+            hashCacheService.invalidate(tokenData.basePath(), fullPath);
+            if (folder) {
+                contentTypeService.invalidateFolder(fullPath);
+                hotFileCacheService.invalidateFolder(fullPath);
+            } else {
+                contentTypeService.invalidate(fullPath);
+                hotFileCacheService.invalidate(fullPath);
+            }
+            folderDigestService.invalidate(tokenData.basePath(), fullPath);
+            if (existed) {
+                changeJournalService.record(tokenData.tenant(), tokenData.realm(),
+                        softDelete ? ChangeJournalService.ChangeType.SOFT_DELETE : ChangeJournalService.ChangeType.DELETE,
+                        relativePath(tokenData.basePath(), fullPath), null);
             }
         } catch (IOException e) {
             log.error("Could not delete file or folder", e);
             throw new RuntimeException("Could not delete file or folder.");
         }
 
-        logService.log(tokenData.tenant, LogService.EventType.DELETE, tokenData.subject(), fullPath.toString());
-        log.info("{} delete {}", tokenData.subject(), fullPath);
+        return fullPath.toString();
+    }
+
+    /**
+     * Runs moves and deletes as if they were sent one after the other, and reports the outcome of each.
+     * <p>
+     * An operation waits for the earlier ones whose paths contain, or are contained in, its own; all others run on
+     * virtual threads, at most {@value #BATCH_PARALLELISM} at a time. A failing operation does not stop the others.
+     * Moves need the WRITE role and deletes the DELETE role. The audit records of all successful operations are
+     * logged together.
+     */
+    public BatchResponseDto batch(final List<BatchOperationDto> operations) {
+        final var tokenData = getTokenData();
+        final var basePath = tokenData.basePath();
+
+        log.info("{} batch of {} operations", tokenData.subject(), operations.size());
+
+        final var paths = new ArrayList<List<Path>>(operations.size());
+        for (final var operation : operations) {
+            // Invalid paths are rejected without touching anything, so they need not be ordered
+            final var operationPaths = new ArrayList<Path>(2);
+            for (final var path : Arrays.asList(operation.path(), operation.toPath())) {
+                if (path != null && DepotUtil.isValidPath(path)) {
+                    operationPaths.add(basePath.resolve(DepotUtil.normalizePath(path)).normalize());
+                }
+            }
+            paths.add(operationPaths);
+        }
+
+        final var results = new ArrayList<CompletableFuture<BatchOutcome>>(operations.size());
+        final var permits = new Semaphore(BATCH_PARALLELISM);
+        try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < operations.size(); i++) {
+                final var operation = operations.get(i);
+                final var dependencies = new ArrayList<CompletableFuture<BatchOutcome>>();
+                for (int j = 0; j < i; j++) {
+                    if (overlaps(paths.get(i), paths.get(j))) {
+                        dependencies.add(results.get(j));
+                    }
+                }
+
+                results.add(CompletableFuture.allOf(dependencies.toArray(CompletableFuture[]::new))
+                        .thenApplyAsync(ignored -> {
+                            permits.acquireUninterruptibly();
+                            try {
+                                return runBatchOperation(tokenData, operation);
+                            } finally {
+                                permits.release();
+                            }
+                        }, executor));
+            }
+            CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).join();
+        }
+
+        final var outcomes = results.stream().map(CompletableFuture::join).toList();
+        final var auditEntries = outcomes.stream()
+                .map(BatchOutcome::auditEntry)
+                .filter(Objects::nonNull)
+                .toList();
+        logService.log(tokenData.tenant(), tokenData.realm(), tokenData.subject(), auditEntries);
+
+        final var succeeded = auditEntries.size();
+        log.info("{} batch done, {} of {} operations succeeded", tokenData.subject(), succeeded, operations.size());
+        return new BatchResponseDto(succeeded, operations.size() - succeeded, outcomes.stream().map(BatchOutcome::result).toList());
+    }
+
+    private record BatchOutcome(BatchResultDto result, LogService.@Nullable BatchEntry auditEntry) {
+    }
+
+    private BatchOutcome runBatchOperation(final DepotPrincipal tokenData, final BatchOperationDto operation) {
+        final var path = operation.path();
+        final var toPath = operation.toPath();
+        try {
+            switch (operation.operation()) {
+                case "MOVE" -> {
+                    if (!tokenData.canWrite()) {
+                        return rejected("MOVE requires the WRITE role");
+                    }
+                    if (toPath == null || !DepotUtil.isValidPath(path) || !DepotUtil.isValidPath(toPath)) {
+                        return rejected("path and toPath " + INVALID_PATH_DETAIL);
+                    }
+                    final var description = move(tokenData, path, toPath);
+                    return new BatchOutcome(new BatchResultDto("OK", null), new LogService.BatchEntry(LogService.EventType.MOVE, description));
+                }
+                case "DELETE" -> {
+                    if (!tokenData.canDelete()) {
+                        return rejected("DELETE requires the DELETE role");
+                    }
+                    if (!DepotUtil.isValidPath(path)) {
+                        return rejected("path " + INVALID_PATH_DETAIL);
+                    }
+                    final var description = delete(tokenData, path);
+                    return new BatchOutcome(new BatchResultDto("OK", null), new LogService.BatchEntry(LogService.EventType.DELETE, description));
+                }
+                default -> {
+                    return rejected("operation must be MOVE or DELETE");
+                }
+            }
+        } catch (PathNotFoundException e) {
+            return new BatchOutcome(new BatchResultDto("NOT_FOUND", e.getMessage()), null);
+        } catch (DestinationAlreadyExistsException e) {
+            return new BatchOutcome(new BatchResultDto("CONFLICT", e.getMessage()), null);
+        } catch (RuntimeException e) {
+            log.warn("Batch operation {} failed", operation, e);
+            return new BatchOutcome(new BatchResultDto("FAILED", e.getMessage()), null);
+        }
+    }
+
+    private static BatchOutcome rejected(final String detail) {
+        return new BatchOutcome(new BatchResultDto("REJECTED", detail), null);
+    }
+
+    private static boolean overlaps(final List<Path> paths, final List<Path> otherPaths) {
+        for (final var path : paths) {
+            for (final var otherPath : otherPaths) {
+                if (path.startsWith(otherPath) || otherPath.startsWith(path)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public ChangesDto changes(@Nullable final String since, final int limit) {
+        final var tokenData = getTokenData();
+
+        ChangeJournalService.Cursor sinceCursor = null;
+        if (since != null) {
+            try {
+                sinceCursor = ChangeJournalService.Cursor.parse(since);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidRequestException("since", since, "is not a valid cursor");
+            }
+        }
+
+        logService.log(tokenData.tenant(), tokenData.realm(), LogService.EventType.CHANGES, tokenData.subject(), since == null ? "-" : since);
+        log.info("{} changes since {}", tokenData.subject(), since);
+
+        final var changes = changeJournalService.changes(tokenData.tenant(), tokenData.realm(), sinceCursor, limit);
+        return new ChangesDto(
+                changes.changes().stream().map(DepotService::toChangeDto).toList(),
+                changes.cursor().toString(),
+                changes.more());
+    }
+
+    public interface ChangeListener {
+
+        void changes(List<ChangeDto> changes) throws IOException;
+
+        /**
+         * The changes after the last event id are no longer journaled, the client has to rescan from {@code cursor}.
+         */
+        void resync(String cursor) throws IOException;
+
+        void heartbeat() throws IOException;
+
+    }
+
+    /**
+     * Pushes the changes of the caller's realm to {@code listener} until the client disconnects or the stream has
+     * been open for {@link #EVENTS_MAX_DURATION}, after which the client reconnects with a freshly verified token.
+     * <p>
+     * With a {@code lastEventId} the changes since then are replayed from the journal first. A subscription that
+     * overflows while the client is slow catches up the same way.
+     */
+    public void events(@Nullable final String lastEventId, final ChangeListener listener) {
+        final var tokenData = getTokenData();
+
+        ChangeJournalService.Cursor lastCursor = null;
+        if (lastEventId != null) {
+            try {
+                lastCursor = ChangeJournalService.Cursor.parse(lastEventId);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidRequestException("Last-Event-ID", lastEventId, "is not a valid cursor");
+            }
+        }
+
+        logService.log(tokenData.tenant(), tokenData.realm(), LogService.EventType.EVENTS, tokenData.subject(), lastEventId == null ? "-" : lastEventId);
+        log.info("{} events since {}", tokenData.subject(), lastEventId);
+
+        // Subscribing before reading the journal ensures no change falls between replay and live events
+        try (final var subscription = changeEventBus.subscribe(tokenData.tenant(), tokenData.realm())) {
+            var cursor = lastCursor == null
+                    ? changeJournalService.changes(tokenData.tenant(), tokenData.realm(), null, 0).cursor()
+                    : replay(tokenData, lastCursor, listener);
+
+            final var deadline = Instant.now().plus(EVENTS_MAX_DURATION);
+            while (Instant.now().isBefore(deadline)) {
+                final var batch = subscription.poll(EVENTS_HEARTBEAT_INTERVAL);
+                final var since = cursor;
+                // Changes of another epoch mean the journal lost track, replaying the old cursor ends in a resync
+                if (batch.overflowed() || batch.changes().stream().anyMatch(change -> change.epoch() != since.epoch())) {
+                    cursor = replay(tokenData, cursor, listener);
+                    continue;
+                }
+
+                final var changes = batch.changes().stream().filter(change -> change.sequence() > since.sequence()).toList();
+                if (changes.isEmpty()) {
+                    listener.heartbeat();
+                } else {
+                    listener.changes(changes.stream().map(DepotService::toChangeDto).toList());
+                    cursor = changes.getLast().cursor();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.debug("{} events stream closed", tokenData.subject(), e);
+        }
+    }
+
+    private ChangeJournalService.Cursor replay(final DepotPrincipal tokenData, final ChangeJournalService.Cursor since, final ChangeListener listener) throws IOException {
+        var cursor = since;
+        try {
+            ChangeJournalService.Changes page;
+            do {
+                page = changeJournalService.changes(tokenData.tenant(), tokenData.realm(), cursor, EVENTS_REPLAY_PAGE_SIZE);
+                if (!page.changes().isEmpty()) {
+                    listener.changes(page.changes().stream().map(DepotService::toChangeDto).toList());
+                }
+                cursor = page.cursor();
+            } while (page.more());
+            return cursor;
+        } catch (CursorExpiredException e) {
+            final var current = changeJournalService.changes(tokenData.tenant(), tokenData.realm(), null, 0).cursor();
+            listener.resync(current.toString());
+            return current;
+        }
+    }
+
+    private static ChangeDto toChangeDto(final ChangeJournalService.Change change) {
+        return new ChangeDto(change.cursor().toString(), change.timestamp(), change.type().name(), change.path(), change.toPath());
+    }
+
+    private static String relativePath(final Path basePath, final Path path) {
+        return basePath.toAbsolutePath().normalize().relativize(path.toAbsolutePath().normalize()).toString();
     }
 
     private void softDelete(final Path fullPath) throws IOException {
@@ -302,37 +1330,19 @@ public record DepotService(
         Files.move(fullPath, target, StandardCopyOption.ATOMIC_MOVE);
     }
 
-    private record TokenData(String tenant, Path basePath, String subject) {
-    }
-
-    private TokenData getTokenData() {
+    /**
+     * The principal installed by {@link JWTAuthorizationFilter}.
+     */
+    private DepotPrincipal getTokenData() {
         final var authentication = SecurityContextHolder.getContext().getAuthentication();
         if (authentication == null) {
             throw new IllegalStateException("Not authenticated");
         }
 
-        final var tenantRealmAndSubject = Arrays.asList(authentication.getName().split(JWTAuthorizationFilter.TOKEN_DATA_DELIMITER));
-        if (tenantRealmAndSubject.size() != 3) {
+        if (!(authentication.getPrincipal() instanceof DepotPrincipal depotPrincipal)) {
             throw new IllegalStateException("Illegal security context");
         }
-
-        final var tenant = tenantRealmAndSubject.get(0);
-        if (!StringUtils.hasText(tenant)) {
-            throw new IllegalStateException("Empty tenant");
-        }
-
-        final var realm = tenantRealmAndSubject.get(1);
-        if (!StringUtils.hasText(realm)) {
-            throw new IllegalStateException("Empty realm");
-        }
-
-        final var subject = tenantRealmAndSubject.get(2);
-        if (!StringUtils.hasText(subject)) {
-            throw new IllegalStateException("Empty subject");
-        }
-
-        final var rootAndRealmPath = depotProperties.getBaseDirectory().resolve(tenant).resolve(realm);
-        return new TokenData(tenant, rootAndRealmPath, subject);
+        return depotPrincipal;
     }
 
 }
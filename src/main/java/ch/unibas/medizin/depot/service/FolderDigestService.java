@@ -0,0 +1,135 @@
+package ch.unibas.medizin.depot.service;
+
+import ch.unibas.medizin.depot.util.IncrementalMurmur3;
+import ch.unibas.medizin.depot.util.LruCache;
+import org.jspecify.annotations.NullMarked;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes Merkle-style folder digests: Murmur3 over the sorted visible children, each contributing its name and
+ * either its size and content hash or, for a folder, its own digest.
+ * <p>
+ * Digests are cached per realm and dropped for the changed path, everything below it and all its ancestors whenever
+ * {@link DepotService} mutates the realm, so after a change only the folders on the path to the root are recomputed.
+ * Digests therefore only follow changes made through {@link DepotService}. Each cached digest remembers the folder's
+ * modification time as a cheap sanity check, but a hit returns without looking at the subtree, so files edited or
+ * entries added further down behind the service's back stay unnoticed until the folder is invalidated. A digest
+ * computed while the realm changed is returned but not cached.
+ */
+@Service
+@NullMarked
+public class FolderDigestService {
+
+    private static final int MAX_ENTRIES_PER_REALM = 50_000;
+
+    private final HashCacheService hashCacheService;
+
+    private final Map<Path, RealmDigests> realms = new ConcurrentHashMap<>();
+
+    private record CachedDigest(long modified, String digest) {
+    }
+
+    private record RealmDigests(LruCache<String, CachedDigest> entries, AtomicLong generation) {
+    }
+
+    public FolderDigestService(final HashCacheService hashCacheService) {
+        this.hashCacheService = hashCacheService;
+    }
+
+    public String digest(final Path realmPath, final Path folder) throws IOException {
+        final var realm = realmDigests(realmPath);
+        return digest(realmPath, realm, realm.generation().get(), folder);
+    }
+
+    private String digest(final Path realmPath, final RealmDigests realm, final long generation, final Path folder) throws IOException {
+        final var key = relativeKey(realmPath, folder);
+        final var modified = Files.getLastModifiedTime(folder).to(TimeUnit.NANOSECONDS);
+
+        final var cached = realm.entries().get(key);
+        if (cached != null && cached.modified() == modified) {
+            return cached.digest();
+        }
+
+        final var children = new ArrayList<Path>();
+        try (final var directoryStream = Files.newDirectoryStream(folder, child -> !child.getFileName().toString().startsWith("."))) {
+            directoryStream.forEach(children::add);
+        }
+        children.sort(Comparator.comparing(child -> child.getFileName().toString()));
+
+        final var hasher = new IncrementalMurmur3();
+        for (final var child : children) {
+            final var line = new StringBuilder();
+            final var name = child.getFileName().toString();
+            final var attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+            if (attributes.isDirectory()) {
+                line.append("D\t").append(name).append('\t').append(digest(realmPath, realm, generation, child));
+            } else {
+                final var targetAttributes = attributes.isSymbolicLink() ? Files.readAttributes(child, BasicFileAttributes.class) : attributes;
+                if (targetAttributes.isDirectory()) {
+                    // Linked folders are not descended into, they could form cycles
+                    line.append("L\t").append(name);
+                } else {
+                    line.append("F\t").append(name).append('\t').append(targetAttributes.size())
+                            .append('\t').append(hashCacheService.hash(realmPath, child, targetAttributes));
+                }
+            }
+
+            final var bytes = line.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+            hasher.update(bytes, 0, bytes.length);
+        }
+
+        final var digest = IncrementalMurmur3.toHex(hasher.finish());
+        if (realm.generation().get() == generation) {
+            realm.entries().put(key, new CachedDigest(modified, digest));
+        }
+        return digest;
+    }
+
+    /**
+     * Forgets the digests of {@code path}, everything below it and all folders above it up to the realm root.
+     */
+    public void invalidate(final Path realmPath, final Path path) {
+        final var realm = realmDigests(realmPath);
+        realm.generation().incrementAndGet();
+
+        final var key = relativeKey(realmPath, path);
+        if (key.isEmpty()) {
+            realm.entries().clear();
+            return;
+        }
+
+        final var prefix = key + "/";
+        realm.entries().removeIf(candidate -> candidate.equals(key) || candidate.startsWith(prefix));
+
+        var ancestor = Path.of(key).getParent();
+        while (ancestor != null) {
+            realm.entries().remove(ancestor.toString());
+            ancestor = ancestor.getParent();
+        }
+        realm.entries().remove("");
+    }
+
+    private RealmDigests realmDigests(final Path realmPath) {
+        return realms.computeIfAbsent(realmPath.toAbsolutePath().normalize(),
+                key -> new RealmDigests(new LruCache<>(MAX_ENTRIES_PER_REALM), new AtomicLong()));
+    }
+
+    private static String relativeKey(final Path realmPath, final Path path) {
+        return realmPath.toAbsolutePath().normalize().relativize(path.toAbsolutePath().normalize()).toString();
+    }
+
+}
@@ -0,0 +1,199 @@
+package ch.unibas.medizin.depot.service;
+
+import ch.unibas.medizin.depot.config.DepotProperties;
+import ch.unibas.medizin.depot.util.IncrementalMurmur3;
+import ch.unibas.medizin.depot.util.LruCache;
+import jakarta.annotation.PreDestroy;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Remembers Murmur3 content hashes per realm, validated against file key, size and modification time.
+ * <p>
+ * Each realm keeps an LRU in memory that is persisted to {@code <baseDirectory>/.cache/<tenant>/<realm>/hashes},
+ * so a restart does not force a full re-read of every file on the next hashed listing.
+ */
+@Service
+@NullMarked
+public class HashCacheService {
+
+    private static final Logger log = LoggerFactory.getLogger(HashCacheService.class);
+
+    private static final int MAX_ENTRIES_PER_REALM = 10_000;
+
+    private static final String INDEX_FILE_NAME = "hashes";
+
+    private static final String FIELD_DELIMITER = "\t";
+
+    private final Path baseDirectory;
+
+    private final Path cacheDirectory;
+
+    private final Map<Path, RealmHashes> realms = new ConcurrentHashMap<>();
+
+    private record CachedHash(String fileKey, long size, long modified, String hash) {
+
+        boolean matches(final BasicFileAttributes attributes) {
+            return size == attributes.size()
+                    && modified == modifiedOf(attributes)
+                    && fileKey.equals(fileKeyOf(attributes));
+        }
+
+    }
+
+    private record RealmHashes(Path indexFile, LruCache<String, CachedHash> entries, AtomicBoolean dirty) {
+    }
+
+    public HashCacheService(final DepotProperties depotProperties) {
+        this.baseDirectory = depotProperties.getBaseDirectory().toAbsolutePath().normalize();
+        this.cacheDirectory = baseDirectory.resolve(".cache");
+    }
+
+    public String hash(final Path realmPath, final Path file, final BasicFileAttributes attributes) throws IOException {
+        final var cached = lookup(realmPath, file, attributes);
+        if (cached != null) {
+            return cached;
+        }
+
+        final var hash = IncrementalMurmur3.toHex(IncrementalMurmur3.hash(file));
+        store(realmPath, file, attributes, hash);
+        return hash;
+    }
+
+    private @Nullable String lookup(final Path realmPath, final Path file, final BasicFileAttributes attributes) {
+        final var realm = realmHashes(realmPath);
+        final var key = relativeKey(realmPath, file);
+        final var cached = realm.entries().get(key);
+
+        if (cached == null) {
+            return null;
+        }
+
+        if (!cached.matches(attributes)) {
+            realm.entries().remove(key);
+            realm.dirty().set(true);
+            return null;
+        }
+
+        return cached.hash();
+    }
+
+    public void store(final Path realmPath, final Path file, final BasicFileAttributes attributes, final String hash) {
+        final var realm = realmHashes(realmPath);
+        realm.entries().put(relativeKey(realmPath, file), new CachedHash(fileKeyOf(attributes), attributes.size(), modifiedOf(attributes), hash));
+        realm.dirty().set(true);
+    }
+
+    public void invalidate(final Path realmPath, final Path path) {
+        final var realm = realmHashes(realmPath);
+        final var key = relativeKey(realmPath, path);
+
+        final boolean removed;
+        if (key.isEmpty()) {
+            removed = realm.entries().size() > 0;
+            realm.entries().clear();
+        } else {
+            final var prefix = key + "/";
+            removed = realm.entries().removeIf(candidate -> candidate.equals(key) || candidate.startsWith(prefix));
+        }
+
+        if (removed) {
+            realm.dirty().set(true);
+        }
+    }
+
+    public void flush(final Path realmPath) {
+        flush(realmHashes(realmPath));
+    }
+
+    @PreDestroy
+    public void flushAll() {
+        realms.values().forEach(this::flush);
+    }
+
+    private void flush(final RealmHashes realm) {
+        if (!realm.dirty().compareAndSet(true, false)) {
+            return;
+        }
+
+        final var lines = new StringBuilder();
+        for (final var entry : realm.entries().snapshot()) {
+            final var cached = entry.getValue();
+            lines.append(entry.getKey()).append(FIELD_DELIMITER)
+                    .append(cached.fileKey()).append(FIELD_DELIMITER)
+                    .append(cached.size()).append(FIELD_DELIMITER)
+                    .append(cached.modified()).append(FIELD_DELIMITER)
+                    .append(cached.hash()).append('\n');
+        }
+
+        try {
+            Files.createDirectories(realm.indexFile().getParent());
+            final var tmpFile = Files.createTempFile(realm.indexFile().getParent(), INDEX_FILE_NAME, "");
+            Files.writeString(tmpFile, lines, StandardCharsets.UTF_8);
+            Files.move(tmpFile, realm.indexFile(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.error("Could not write hash index {}", realm.indexFile(), e);
+            realm.dirty().set(true);
+        }
+    }
+
+    private RealmHashes realmHashes(final Path realmPath) {
+        return realms.computeIfAbsent(realmPath.toAbsolutePath().normalize(), this::load);
+    }
+
+    private RealmHashes load(final Path realmPath) {
+        final var indexFile = cacheDirectory.resolve(baseDirectory.relativize(realmPath)).resolve(INDEX_FILE_NAME);
+        final var entries = new LruCache<String, CachedHash>(MAX_ENTRIES_PER_REALM);
+
+        try (final var lines = Files.lines(indexFile, StandardCharsets.UTF_8)) {
+            lines.forEach(line -> {
+                final var fields = line.split(FIELD_DELIMITER, -1);
+                if (fields.length != 5) {
+                    return;
+                }
+                try {
+                    entries.put(fields[0], new CachedHash(fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]), fields[4]));
+                } catch (NumberFormatException e) {
+                    log.debug("Skipping malformed hash index line in {}", indexFile);
+                }
+            });
+            log.debug("Loaded {} cached hashes from {}", entries.size(), indexFile);
+        } catch (NoSuchFileException e) {
+            log.debug("No hash index at {}", indexFile);
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Could not read hash index {}", indexFile, e);
+        }
+
+        return new RealmHashes(indexFile, entries, new AtomicBoolean(false));
+    }
+
+    private static String relativeKey(final Path realmPath, final Path file) {
+        return realmPath.toAbsolutePath().normalize().relativize(file.toAbsolutePath().normalize()).toString();
+    }
+
+    private static String fileKeyOf(final BasicFileAttributes attributes) {
+        final var fileKey = attributes.fileKey();
+        return fileKey == null ? "-" : fileKey.toString();
+    }
+
+    private static long modifiedOf(final BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+}
@@ -0,0 +1,271 @@
+package ch.unibas.medizin.depot.service;
+
+import ch.unibas.medizin.depot.config.HotFileCacheProperties;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the content of small, repeatedly downloaded files in direct buffers, next to their content type and ETag, so
+ * {@code /get} serves them without opening the file or consulting Tika.
+ * <p>
+ * A file is admitted on its second download, so one-off reads do not push out the hot set, and entries are validated
+ * against size and modification time on every hit. Lookups and admissions work on concurrent maps without a common
+ * lock; each hit only stamps its entry with the time of access. The cache is bounded by {@code max-size} bytes and
+ * {@code max-entries} files: an admission that exceeds either sorts the entries by last access and evicts the least
+ * recently used until a tenth of both is free again. Writes drop the entry of their file; only folder moves and
+ * deletes scan the cache for the entries below the folder. Direct buffers live outside the Java heap and do not add
+ * to garbage collection work; the JVM releases them once an evicted entry is no longer referenced.
+ */
+@Service
+@NullMarked
+public class HotFileCacheService {
+
+    private static final Logger log = LoggerFactory.getLogger(HotFileCacheService.class);
+
+    private final HotFileCacheProperties properties;
+
+    private final Map<Path, Entry> files = new ConcurrentHashMap<>();
+
+    private final Map<Path, Long> seen = new ConcurrentHashMap<>();
+
+    private final AtomicLong cachedBytes = new AtomicLong();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    public record CachedFile(Resource resource, String contentType, String eTag, long size, long modified) {
+    }
+
+    private record Entry(CachedFile cachedFile, AtomicLong lastAccess) {
+    }
+
+    public HotFileCacheService(final HotFileCacheProperties properties) {
+        this.properties = properties;
+    }
+
+    public @Nullable CachedFile lookup(final Path file, final BasicFileAttributes attributes) {
+        if (!properties.enabled()) {
+            return null;
+        }
+        final var key = file.toAbsolutePath().normalize();
+        final var entry = files.get(key);
+        if (entry == null) {
+            return null;
+        }
+        final var cachedFile = entry.cachedFile();
+        if (cachedFile.size() == attributes.size() && cachedFile.modified() == modifiedOf(attributes)) {
+            entry.lastAccess().set(System.nanoTime());
+            return cachedFile;
+        }
+        remove(key, entry);
+        return null;
+    }
+
+    /**
+     * Loads {@code file} into the cache if it is small enough and was downloaded before.
+     *
+     * @return the cached file to serve instead of reading it again, or null if it was not admitted
+     */
+    public @Nullable CachedFile offer(final Path file, final BasicFileAttributes attributes, final String contentType, final String eTag) {
+        if (!properties.enabled() || attributes.size() > properties.maxFileSize().toBytes()) {
+            return null;
+        }
+
+        final var key = file.toAbsolutePath().normalize();
+        final var modified = modifiedOf(attributes);
+        if (seen.size() >= properties.maxEntries() * 4) {
+            // Forgetting earlier downloads only delays the admission of files that are still hot
+            seen.clear();
+        }
+        final var previous = seen.put(key, modified);
+        if (previous == null || previous != modified) {
+            return null;
+        }
+
+        final ByteBuffer content;
+        try (final var channel = FileChannel.open(key, StandardOpenOption.READ)) {
+            content = ByteBuffer.allocateDirect((int) attributes.size());
+            while (content.hasRemaining() && channel.read(content) != -1) {
+                // Keep reading until the buffer is full
+            }
+            if (content.hasRemaining() || channel.size() != attributes.size()) {
+                log.debug("{} changed while caching it", key);
+                return null;
+            }
+        } catch (IOException e) {
+            log.debug("Could not cache {}", key, e);
+            return null;
+        }
+        content.flip();
+
+        final var cachedFile = new CachedFile(new ByteBufferResource(key, content.asReadOnlyBuffer()), contentType, eTag, attributes.size(), modified);
+        final var replaced = files.put(key, new Entry(cachedFile, new AtomicLong(System.nanoTime())));
+        cachedBytes.addAndGet(cachedFile.size() - (replaced == null ? 0 : replaced.cachedFile().size()));
+        if (cachedBytes.get() > properties.maxSize().toBytes() || files.size() > properties.maxEntries()) {
+            evict();
+        }
+        return cachedFile;
+    }
+
+    public void invalidate(final Path file) {
+        if (!properties.enabled()) {
+            return;
+        }
+        final var key = file.toAbsolutePath().normalize();
+        seen.remove(key);
+        final var entry = files.get(key);
+        if (entry != null) {
+            remove(key, entry);
+        }
+    }
+
+    /**
+     * Drops the entries of every file below {@code folder}, for folders that were moved or deleted.
+     */
+    public void invalidateFolder(final Path folder) {
+        if (!properties.enabled()) {
+            return;
+        }
+        final var key = folder.toAbsolutePath().normalize();
+        seen.keySet().removeIf(candidate -> candidate.startsWith(key));
+        files.forEach((candidate, entry) -> {
+            if (candidate.startsWith(key)) {
+                remove(candidate, entry);
+            }
+        });
+    }
+
+    private void remove(final Path key, final Entry entry) {
+        // Only the thread that actually removes the entry gives back its bytes
+        if (files.remove(key, entry)) {
+            cachedBytes.addAndGet(-entry.cachedFile().size());
+        }
+    }
+
+    private void evict() {
+        // One admission evicts for all that overflow meanwhile
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            final var maxBytes = properties.maxSize().toBytes() - properties.maxSize().toBytes() / 10;
+            final var maxEntries = properties.maxEntries() - properties.maxEntries() / 10;
+            // Access times keep changing, so they are read once before sorting
+            record Candidate(Path key, Entry entry, long lastAccess) {
+            }
+            final var candidates = new ArrayList<Candidate>(files.size());
+            files.forEach((key, entry) -> candidates.add(new Candidate(key, entry, entry.lastAccess().get())));
+            candidates.sort(Comparator.comparingLong(Candidate::lastAccess));
+            for (final var candidate : candidates) {
+                if (cachedBytes.get() <= maxBytes && files.size() <= maxEntries) {
+                    break;
+                }
+                remove(candidate.key(), candidate.entry());
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static long modifiedOf(final BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private static final class ByteBufferResource extends AbstractResource {
+
+        private final Path file;
+
+        private final ByteBuffer content;
+
+        ByteBufferResource(final Path file, final ByteBuffer content) {
+            this.file = file;
+            this.content = content;
+        }
+
+        @Override
+        public String getDescription() {
+            return "cached file [" + file + "]";
+        }
+
+        @Override
+        public String getFilename() {
+            return file.getFileName().toString();
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long contentLength() {
+            return content.capacity();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteBufferInputStream(content.duplicate());
+        }
+
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final var count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final var count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+    }
+
+}
@@ -1,62 +1,485 @@
 package ch.unibas.medizin.depot.service;
 
-import ch.qos.logback.classic.Level;
-import ch.qos.logback.classic.Logger;
-import ch.qos.logback.classic.LoggerContext;
-import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
-import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.core.FileAppender;
+import ch.unibas.medizin.depot.config.AuditLogProperties;
 import ch.unibas.medizin.depot.config.DepotProperties;
-import ch.unibas.medizin.depot.util.DepotUtil;
+import ch.unibas.medizin.depot.util.LruCache;
+import jakarta.annotation.PreDestroy;
 import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
+/**
+ * Appends audit records to time-bounded segments under {@code <baseDirectory>/.audit/<tenant>}.
+ * <p>
+ * Request threads only enqueue the record; one writer thread per tenant drains its queue and appends the whole batch
+ * with a single write. Batches go out every {@code flushInterval}, or earlier once the queue is half full. A full
+ * queue either blocks the caller until the writer caught up or drops the record, as configured.
+ * <p>
+ * A new segment starts whenever a record falls into the next {@code segmentDuration} window. Queries skip segments
+ * by their index (see {@link AuditSegment}) and seek directly to the requested start inside the remaining ones.
+ * <p>
+ * The single {@code <baseDirectory>/<tenant>/depot-access.log} of earlier versions is left as it is. Its lines lack
+ * the realm and cannot be split into subject and description reliably, so they are not imported into segments.
+ */
 @Service
 @NullMarked
 public class LogService {
 
+    private static final Logger log = LoggerFactory.getLogger(LogService.class);
+
+    public static final String AUDIT_DIRECTORY_NAME = ".audit";
+
+    private static final String LEGACY_LOGFILE_NAME = "depot-access.log";
+
+    private static final int MAX_BATCH_BYTES = 1024 * 1024;
+
+    private static final int MAX_CACHED_SEGMENTS = 256;
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // Records are timestamped before they are queued, so they may reach a segment slightly out of order
+    private static final Duration ORDERING_SLACK = Duration.ofSeconds(10);
+
     public enum EventType {
-        TOKEN, GET, PUT, LIST, DELETE, MOVE
+        TOKEN, GET, PUT, LIST, DELETE, MOVE, TREE, DIGEST, CHANGES, EVENTS, ARCHIVE, EXTRACT
+    }
+
+    public record AuditEvent(Instant timestamp, EventType type, String realm, String subject, String description) {
+    }
+
+    public record QueueStats(int depth, long written, long dropped) {
+    }
+
+    private final AuditLogProperties auditLogProperties;
+
+    private final Map<String, TenantLog> tenantLogs;
+
+    public LogService(final DepotProperties depotProperties, final AuditLogProperties auditLogProperties) {
+        this.auditLogProperties = auditLogProperties;
+
+        final var tenantLogs = new LinkedHashMap<String, TenantLog>();
+        for (final var tenant : depotProperties.getTenants().keySet()) {
+            final var directory = depotProperties.getBaseDirectory().resolve(AUDIT_DIRECTORY_NAME).resolve(tenant);
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                log.error("Could not create audit log directory {}", directory, e);
+            }
+            tenantLogs.put(tenant, new TenantLog(tenant, directory));
+
+            final var legacyLogfile = depotProperties.getBaseDirectory().resolve(tenant).resolve(LEGACY_LOGFILE_NAME);
+            if (Files.exists(legacyLogfile)) {
+                log.info("Audit records of tenant {} before the upgrade remain in {} and are not queryable", tenant, legacyLogfile);
+            }
+        }
+        this.tenantLogs = Collections.unmodifiableMap(tenantLogs);
+    }
+
+    public void log(final String tenant, final String realm, final EventType type, final String subject, final String description) {
+        final var tenantLog = tenantLogs.get(tenant);
+        if (tenantLog != null) {
+            tenantLog.offer(List.of(new AuditEvent(Instant.now(), type, realm, subject, description)));
+        }
+    }
+
+    public record BatchEntry(EventType type, String description) {
+    }
+
+    /**
+     * Records several events of one request with a common timestamp. They are queued together and wake the writer at
+     * most once, so they usually end up in the same write.
+     */
+    public void log(final String tenant, final String realm, final String subject, final List<BatchEntry> entries) {
+        final var tenantLog = tenantLogs.get(tenant);
+        if (tenantLog != null && !entries.isEmpty()) {
+            final var timestamp = Instant.now();
+            tenantLog.offer(entries.stream()
+                    .map(entry -> new AuditEvent(timestamp, entry.type(), realm, subject, entry.description()))
+                    .toList());
+        }
     }
 
-    private final Map<String, Logger> loggers = new HashMap<>();
+    /**
+     * Passes every record of {@code tenant} with a timestamp in {@code [from, to)} that matches the optional realm,
+     * subject and types to {@code consumer}, segment by segment in chronological order.
+     */
+    public void query(final String tenant, final Instant from, final Instant to, @Nullable final String realm,
+                      @Nullable final String subject, final Set<EventType> types, final Consumer<AuditEvent> consumer) throws IOException {
+        final var tenantLog = tenantLogs.get(tenant);
+        if (tenantLog == null) {
+            return;
+        }
+
+        tenantLog.drain();
 
-    public LogService(DepotProperties depotProperties) {
-        for (var tenant : depotProperties.getTenants().keySet()) {
-            var loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
-            var patternLayoutEncoder = new PatternLayoutEncoder();
-            patternLayoutEncoder.setPattern("%date %msg%n");
-            patternLayoutEncoder.setContext(loggerContext);
-            patternLayoutEncoder.start();
+        final var segments = tenantLog.segmentFiles();
+        for (int i = 0; i < segments.size(); i++) {
+            final var start = segments.get(i).start();
+            final var end = i + 1 < segments.size() ? segments.get(i + 1).start() : Instant.MAX;
 
-            var fileAppender = new FileAppender<ILoggingEvent>();
-            var logfilePath = depotProperties.getBaseDirectory().resolve(tenant);
-            //noinspection ResultOfMethodCallIgnored
-            logfilePath.toFile().mkdirs();
-            var logfile = depotProperties.getBaseDirectory().resolve(tenant).resolve(DepotUtil.LOGFILE_NAME).toString();
-            fileAppender.setFile(logfile);
-            fileAppender.setEncoder(patternLayoutEncoder);
-            fileAppender.setContext(loggerContext);
-            fileAppender.start();
+            if (!start.minus(ORDERING_SLACK).isBefore(to) || !end.isAfter(from.minus(ORDERING_SLACK))) {
+                continue;
+            }
 
-            var logger = loggerContext.getLogger(tenant);
-            logger.setAdditive(false);
-            logger.setLevel(Level.INFO);
-            logger.addAppender(fileAppender);
+            final var segment = tenantLog.segment(segments.get(i).logfile(), start);
+            if (segment == null || !segment.mightMatch(from, to, realm, subject, types)) {
+                continue;
+            }
 
-            loggers.put(tenant, logger);
+            final var stopAt = to.plus(ORDERING_SLACK);
+            AuditSegment.scan(segment.logfile(), segment.seek(from), segment.length(), (offset, length, event) -> {
+                if (event == null) {
+                    return true;
+                }
+                if (!event.timestamp().isBefore(stopAt)) {
+                    return false;
+                }
+                if (!event.timestamp().isBefore(from) && event.timestamp().isBefore(to)
+                        && (realm == null || realm.equals(event.realm()))
+                        && (subject == null || subject.equals(event.subject()))
+                        && (types.isEmpty() || types.contains(event.type()))) {
+                    consumer.accept(event);
+                }
+                return true;
+            });
         }
     }
 
-    public void log(final String tenant, final EventType type, final String subject, final String description) {
-        var logger = loggers.get(tenant);
-        if (logger != null) {
-            logger.info("{} {} {}", type, subject, description);
+    public QueueStats stats(final String tenant) {
+        final var tenantLog = tenantLogs.get(tenant);
+        return tenantLog == null ? new QueueStats(0, 0, 0) : tenantLog.stats();
+    }
+
+    /**
+     * Writes everything queued so far before returning.
+     */
+    public void flush() {
+        tenantLogs.values().forEach(TenantLog::drain);
+    }
+
+    @PreDestroy
+    public void close() {
+        tenantLogs.values().forEach(TenantLog::close);
+    }
+
+    private record SegmentFile(Path logfile, Instant start) {
+    }
+
+    private record Pending(AuditEvent event, int length) {
+    }
+
+    private final class TenantLog {
+
+        private final String tenant;
+
+        private final Path directory;
+
+        private final ConcurrentLinkedQueue<AuditEvent> queue = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger depth = new AtomicInteger();
+
+        private final AtomicLong written = new AtomicLong();
+
+        private final AtomicLong dropped = new AtomicLong();
+
+        private final LruCache<Path, AuditSegment> sealedSegments = new LruCache<>(MAX_CACHED_SEGMENTS);
+
+        private final Thread writer;
+
+        private volatile boolean running = true;
+
+        private long reportedDropped;
+
+        private volatile @Nullable AuditSegment activeSegment;
+
+        private @Nullable FileChannel channel;
+
+        TenantLog(final String tenant, final Path directory) {
+            this.tenant = tenant;
+            this.directory = directory;
+            this.writer = Thread.ofPlatform()
+                    .name("audit-log-" + tenant)
+                    .daemon(true)
+                    .start(this::run);
+        }
+
+        void offer(final List<AuditEvent> events) {
+            for (final var event : events) {
+                if (reserve()) {
+                    queue.offer(event);
+                }
+            }
+
+            if (!running) {
+                // The writer is gone, write late records ourselves
+                drain();
+            } else if (depth.get() >= auditLogProperties.queueCapacity() / 2) {
+                LockSupport.unpark(writer);
+            }
+        }
+
+        /**
+         * Claims a queue slot, waiting for the writer or giving up as configured when the queue is full.
+         */
+        private boolean reserve() {
+            final var capacity = auditLogProperties.queueCapacity();
+
+            while (true) {
+                final var current = depth.get();
+                if (current < capacity) {
+                    if (depth.compareAndSet(current, current + 1)) {
+                        return true;
+                    }
+                    continue;
+                }
+
+                if (auditLogProperties.overflow() == AuditLogProperties.Overflow.DROP) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+
+                if (running) {
+                    LockSupport.unpark(writer);
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                } else {
+                    drain();
+                }
+            }
+        }
+
+        QueueStats stats() {
+            return new QueueStats(depth.get(), written.get(), dropped.get());
+        }
+
+        private void run() {
+            final var flushIntervalNanos = auditLogProperties.flushInterval().toNanos();
+            while (running) {
+                LockSupport.parkNanos(flushIntervalNanos);
+                drain();
+            }
+        }
+
+        synchronized void drain() {
+            final var batch = new ByteArrayOutputStream();
+            final var pending = new ArrayList<Pending>();
+            AuditEvent event;
+
+            while ((event = queue.poll()) != null) {
+                depth.decrementAndGet();
+
+                final var segment = activeSegment;
+                final var window = windowOf(event.timestamp());
+                if (segment == null || window.isAfter(segment.start())) {
+                    write(batch, pending);
+                    roll(window);
+                }
+
+                final var line = AuditSegment.format(event).getBytes(StandardCharsets.UTF_8);
+                batch.writeBytes(line);
+                pending.add(new Pending(event, line.length));
+
+                if (batch.size() >= MAX_BATCH_BYTES) {
+                    write(batch, pending);
+                }
+            }
+
+            write(batch, pending);
+
+            final var droppedNow = dropped.get();
+            if (droppedNow != reportedDropped) {
+                log.warn("Dropped {} audit records of tenant {} because the queue was full", droppedNow - reportedDropped, tenant);
+                reportedDropped = droppedNow;
+            }
+        }
+
+        private Instant windowOf(final Instant timestamp) {
+            final var duration = auditLogProperties.segmentDuration().toMillis();
+            final var millis = timestamp.toEpochMilli();
+            return Instant.ofEpochMilli(millis - Math.floorMod(millis, duration));
+        }
+
+        private void write(final ByteArrayOutputStream batch, final List<Pending> pending) {
+            final var segment = activeSegment;
+            if (batch.size() == 0 || segment == null) {
+                return;
+            }
+
+            try {
+                final var fileChannel = channel(segment);
+                var offset = segment.length();
+                final var buffer = ByteBuffer.wrap(batch.toByteArray());
+                while (buffer.hasRemaining()) {
+                    fileChannel.write(buffer);
+                }
+                if (auditLogProperties.fsync() == AuditLogProperties.Fsync.EVERY_FLUSH) {
+                    fileChannel.force(false);
+                }
+
+                // Only announce the records to queries once their bytes are in the file
+                for (final var record : pending) {
+                    segment.append(record.event(), offset, record.length());
+                    offset += record.length();
+                }
+                written.addAndGet(pending.size());
+            } catch (IOException e) {
+                log.error("Could not write audit log {}, {} records lost", segment.logfile(), pending.size(), e);
+                closeChannel();
+            } finally {
+                batch.reset();
+                pending.clear();
+            }
+        }
+
+        private void roll(final Instant window) {
+            final var previous = activeSegment;
+            if (previous != null) {
+                seal(previous);
+            }
+
+            // Never reopen a segment older than the newest one (clock set back, shorter segmentDuration after a
+            // restart), queries rely on a segment only holding records from before the next one started
+            var start = window;
+            if (previous == null) {
+                try {
+                    final var segmentFiles = segmentFiles();
+                    if (!segmentFiles.isEmpty() && segmentFiles.getLast().start().isAfter(start)) {
+                        start = segmentFiles.getLast().start();
+                    }
+                } catch (IOException e) {
+                    log.error("Could not list audit segments of tenant {}", tenant, e);
+                }
+            }
+
+            final var logfile = AuditSegment.logfile(directory, start);
+            try {
+                activeSegment = AuditSegment.open(logfile, start);
+            } catch (IOException e) {
+                log.error("Could not open audit segment {}", logfile, e);
+                activeSegment = null;
+            }
+        }
+
+        private void seal(final AuditSegment segment) {
+            try {
+                final var fileChannel = channel;
+                if (fileChannel != null) {
+                    fileChannel.force(false);
+                }
+                segment.writeIndex();
+            } catch (IOException e) {
+                log.error("Could not seal audit segment {}", segment.logfile(), e);
+            }
+            closeChannel();
+            sealedSegments.put(segment.logfile(), segment);
+        }
+
+        private FileChannel channel(final AuditSegment segment) throws IOException {
+            var fileChannel = channel;
+            if (fileChannel == null) {
+                fileChannel = FileChannel.open(segment.logfile(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                // Cut off a line left incomplete by a crash so the next record starts on a fresh line
+                fileChannel.truncate(segment.length());
+                fileChannel.position(segment.length());
+                channel = fileChannel;
+            }
+            return fileChannel;
+        }
+
+        private void closeChannel() {
+            final var fileChannel = channel;
+            channel = null;
+            if (fileChannel != null) {
+                try {
+                    fileChannel.close();
+                } catch (IOException e) {
+                    log.debug("Could not close audit segment of tenant {}", tenant, e);
+                }
+            }
+        }
+
+        List<SegmentFile> segmentFiles() throws IOException {
+            final var segmentFiles = new ArrayList<SegmentFile>();
+            try (final var files = Files.list(directory)) {
+                for (final var file : (Iterable<Path>) files::iterator) {
+                    final var start = AuditSegment.startOf(file);
+                    if (start != null) {
+                        segmentFiles.add(new SegmentFile(file, start));
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                return List.of();
+            }
+            segmentFiles.sort(Comparator.comparing(SegmentFile::start));
+            return segmentFiles;
+        }
+
+        @Nullable AuditSegment segment(final Path logfile, final Instant start) {
+            final var active = activeSegment;
+            if (active != null && active.logfile().equals(logfile)) {
+                return active;
+            }
+
+            final var cached = sealedSegments.get(logfile);
+            if (cached != null) {
+                return cached;
+            }
+
+            // Sealing replaces this with the writer's own instance, so a snapshot of a just rolled segment cannot linger
+            try {
+                final var segment = AuditSegment.open(logfile, start);
+                sealedSegments.put(logfile, segment);
+                return segment;
+            } catch (IOException e) {
+                log.error("Could not open audit segment {}", logfile, e);
+                return null;
+            }
         }
+
+        void close() {
+            running = false;
+            LockSupport.unpark(writer);
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                drain();
+                final var segment = activeSegment;
+                if (segment != null) {
+                    seal(segment);
+                }
+                activeSegment = null;
+            }
+        }
+
     }
 
 }
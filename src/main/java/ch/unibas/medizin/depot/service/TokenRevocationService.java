@@ -0,0 +1,179 @@
+package ch.unibas.medizin.depot.service;
+
+import ch.unibas.medizin.depot.config.DepotProperties;
+import ch.unibas.medizin.depot.util.BloomFilter;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the ids ({@code jti}) of revoked tokens until the tokens expire anyway.
+ * <p>
+ * Revocations are appended to {@code <baseDirectory>/.revocations/revoked.log} and forced to disk before they take
+ * effect, one line of id, tenant and expiry each. On startup the log is read back and rewritten without the expired
+ * entries.
+ * <p>
+ * Every authenticated request asks {@link #isRevoked}, so the live entries sit in an immutable snapshot of a bloom
+ * filter and an exact map, both keyed by tenant and id and replaced as a whole on every revocation. Almost every
+ * token misses the bloom filter after a few bit probes; only the rare false positive and actually revoked tokens
+ * reach the map.
+ */
+@Service
+@NullMarked
+public class TokenRevocationService {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenRevocationService.class);
+
+    public static final String REVOCATION_DIRECTORY_NAME = ".revocations";
+
+    private static final String LOG_FILE_NAME = "revoked.log";
+
+    private static final String FIELD_DELIMITER = "\t";
+
+    private static final int BITS_PER_ENTRY = 10;
+
+    private static final int MIN_BITS = 1024;
+
+    private static final int HASHES = 7;
+
+    private record Revocation(String tenant, String id, Instant expiresAt) {
+
+        String key() {
+            return TokenRevocationService.key(tenant, id);
+        }
+
+    }
+
+    private record Snapshot(BloomFilter filter, Map<String, Revocation> revocations) {
+    }
+
+    private final Path logFile;
+
+    private volatile Snapshot snapshot;
+
+    public TokenRevocationService(final DepotProperties depotProperties) {
+        this.logFile = depotProperties.getBaseDirectory().resolve(REVOCATION_DIRECTORY_NAME).resolve(LOG_FILE_NAME);
+        try {
+            this.snapshot = load();
+        } catch (IOException e) {
+            log.error("Could not read revocation log {}", logFile, e);
+            throw new UncheckedIOException("Could not read revocation log", e);
+        }
+    }
+
+    public boolean isRevoked(final String tenant, final String id) {
+        final var current = snapshot;
+        if (current.revocations().isEmpty()) {
+            return false;
+        }
+        final var key = key(tenant, id);
+        return current.filter().mightContain(key) && current.revocations().containsKey(key);
+    }
+
+    /**
+     * Revokes the token {@code id} of {@code tenant} until {@code expiresAt}, the token's own expiry.
+     *
+     * @return false if the token has already expired or is already revoked, so nothing was recorded
+     */
+    public synchronized boolean revoke(final String tenant, final String id, final Instant expiresAt) {
+        final var now = Instant.now();
+        final var revocation = new Revocation(tenant, id, expiresAt);
+        if (!expiresAt.isAfter(now) || snapshot.revocations().containsKey(revocation.key())) {
+            return false;
+        }
+
+        try {
+            Files.createDirectories(logFile.getParent());
+            try (final var channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                channel.write(StandardCharsets.UTF_8.encode(format(revocation)));
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            log.error("Could not append to revocation log {}", logFile, e);
+            throw new UncheckedIOException("Could not revoke token", e);
+        }
+
+        final var revocations = new HashMap<String, Revocation>();
+        snapshot.revocations().forEach((key, live) -> {
+            if (live.expiresAt().isAfter(now)) {
+                revocations.put(key, live);
+            }
+        });
+        revocations.put(revocation.key(), revocation);
+        snapshot = snapshotOf(revocations);
+        log.info("Revoked token {} of tenant {} until {}", id, tenant, expiresAt);
+        return true;
+    }
+
+    private Snapshot load() throws IOException {
+        final var now = Instant.now();
+        final var revocations = new HashMap<String, Revocation>();
+        var dropped = 0;
+        try {
+            for (final var line : Files.readAllLines(logFile, StandardCharsets.UTF_8)) {
+                final var revocation = parse(line);
+                if (revocation != null && revocation.expiresAt().isAfter(now)) {
+                    revocations.put(revocation.key(), revocation);
+                } else {
+                    dropped++;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return snapshotOf(Map.of());
+        }
+
+        if (dropped > 0) {
+            final var builder = new StringBuilder();
+            revocations.values().forEach(revocation -> builder.append(format(revocation)));
+            final var tmpFile = logFile.resolveSibling(LOG_FILE_NAME + ".tmp");
+            Files.writeString(tmpFile, builder, StandardCharsets.UTF_8);
+            Files.move(tmpFile, logFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            log.info("Dropped {} expired or incomplete revocations", dropped);
+        }
+
+        return snapshotOf(revocations);
+    }
+
+    private static Snapshot snapshotOf(final Map<String, Revocation> revocations) {
+        final var filter = new BloomFilter(Math.max(MIN_BITS, revocations.size() * BITS_PER_ENTRY), HASHES);
+        revocations.keySet().forEach(filter::add);
+        return new Snapshot(filter, Map.copyOf(revocations));
+    }
+
+    private static String key(final String tenant, final String id) {
+        return tenant + FIELD_DELIMITER + id;
+    }
+
+    private static @Nullable Revocation parse(final String line) {
+        final var fields = line.split(FIELD_DELIMITER, -1);
+        if (fields.length != 3) {
+            // A line cut off by a crash, its revocation was never confirmed
+            return null;
+        }
+        try {
+            return new Revocation(fields[1], fields[0], Instant.ofEpochSecond(Long.parseLong(fields[2])));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String format(final Revocation revocation) {
+        return revocation.id() + FIELD_DELIMITER + revocation.tenant() + FIELD_DELIMITER + revocation.expiresAt().getEpochSecond() + "\n";
+    }
+
+}
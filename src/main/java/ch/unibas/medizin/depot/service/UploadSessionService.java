@@ -0,0 +1,268 @@
+package ch.unibas.medizin.depot.service;
+
+import ch.unibas.medizin.depot.config.DepotProperties;
+import ch.unibas.medizin.depot.exception.UploadNotFoundException;
+import ch.unibas.medizin.depot.exception.UploadOffsetMismatchException;
+import ch.unibas.medizin.depot.util.IncrementalMurmur3;
+import jakarta.annotation.PostConstruct;
+import org.jspecify.annotations.NullMarked;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Persists resumable upload sessions under {@code <baseDirectory>/tmp/uploads}.
+ * <p>
+ * Every session consists of a {@code .part} file holding the bytes received so far and a {@code .session} file with
+ * the target, the committed offset and the intermediate Murmur3 state. The session file is only rewritten after the
+ * part file has been forced to disk, so after a crash or disconnect the committed offset never exceeds the stored data.
+ */
+@Service
+@NullMarked
+public class UploadSessionService {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadSessionService.class);
+
+    private static final Duration SESSION_TTL = Duration.ofDays(7);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String SESSION_SUFFIX = ".session";
+
+    private static final String PART_SUFFIX = ".part";
+
+    private final Path uploadDirectory;
+
+    private final ConcurrentMap<UUID, Object> locks = new ConcurrentHashMap<>();
+
+    public record Session(UUID id, String tenant, String realm, String path, String filename, long offset, String hashState, Instant created) {
+    }
+
+    @FunctionalInterface
+    public interface Finisher<T> {
+        T finish(Session session, Path partFile, String contentHash) throws IOException;
+    }
+
+    public UploadSessionService(final DepotProperties depotProperties) {
+        this.uploadDirectory = depotProperties.getBaseDirectory().resolve("tmp").resolve("uploads");
+    }
+
+    @PostConstruct
+    private void init() {
+        try {
+            Files.createDirectories(uploadDirectory);
+            purgeStaleSessions();
+        } catch (IOException e) {
+            log.error("Could not initialize upload directory", e);
+            throw new RuntimeException("Could not initialize upload directory");
+        }
+    }
+
+    public Session create(final String tenant, final String realm, final String path, final String filename) throws IOException {
+        purgeStaleSessions();
+
+        final var session = new Session(UUID.randomUUID(), tenant, realm, path, filename, 0, new IncrementalMurmur3().state(), Instant.now());
+        Files.createFile(partFile(session.id()));
+        save(session);
+        return session;
+    }
+
+    public Session get(final UUID id, final String tenant, final String realm) {
+        return load(id, tenant, realm);
+    }
+
+    public Session append(final UUID id, final String tenant, final String realm, final long offset, final InputStreamSource content) {
+        synchronized (lock(id)) {
+            final var session = load(id, tenant, realm);
+
+            if (offset != session.offset()) {
+                throw new UploadOffsetMismatchException(id.toString(), session.offset());
+            }
+
+            final var hasher = IncrementalMurmur3.restore(session.hashState());
+            IOException transferException = null;
+
+            try (final var channel = FileChannel.open(partFile(id), StandardOpenOption.WRITE)) {
+                // Drop whatever an interrupted chunk left behind the committed offset
+                channel.truncate(session.offset());
+                channel.position(session.offset());
+
+                try (final var inputStream = content.getInputStream()) {
+                    transfer(inputStream, channel, hasher);
+                } catch (IOException e) {
+                    // Keep what arrived before the connection broke, the client resumes from the stored offset
+                    transferException = e;
+                }
+
+                channel.force(false);
+            } catch (IOException e) {
+                log.error("Could not write upload {}", id, e);
+                throw new UncheckedIOException("Could not write upload " + id, e);
+            }
+
+            final var updatedSession = new Session(id, session.tenant(), session.realm(), session.path(), session.filename(),
+                    hasher.length(), hasher.state(), session.created());
+            save(updatedSession);
+
+            if (transferException != null) {
+                log.info("Upload {} interrupted at offset {}", id, updatedSession.offset());
+                throw new UncheckedIOException("Upload " + id + " interrupted", transferException);
+            }
+
+            return updatedSession;
+        }
+    }
+
+    public <T> T finish(final UUID id, final String tenant, final String realm, final Finisher<T> finisher) {
+        synchronized (lock(id)) {
+            final var session = load(id, tenant, realm);
+            final var contentHash = IncrementalMurmur3.toHex(IncrementalMurmur3.restore(session.hashState()).finish());
+
+            try {
+                // A crash between forcing a chunk and saving its session leaves bytes behind the committed offset
+                try (final var channel = FileChannel.open(partFile(id), StandardOpenOption.WRITE)) {
+                    channel.truncate(session.offset());
+                    channel.force(false);
+                }
+                final var result = finisher.finish(session, partFile(id), contentHash);
+                Files.deleteIfExists(sessionFile(id));
+                // A failed finish keeps the session and its lock, the client may retry
+                locks.remove(id);
+                return result;
+            } catch (IOException e) {
+                log.error("Could not finish upload {}", id, e);
+                throw new UncheckedIOException("Could not finish upload " + id, e);
+            }
+        }
+    }
+
+    private Object lock(final UUID id) {
+        // Unknown ids get no entry, nothing would ever remove it again
+        if (!Files.exists(sessionFile(id))) {
+            throw new UploadNotFoundException(id.toString());
+        }
+        return locks.computeIfAbsent(id, key -> new Object());
+    }
+
+    private static void transfer(final InputStream inputStream, final FileChannel channel, final IncrementalMurmur3 hasher) throws IOException {
+        final var buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            final var byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+            while (byteBuffer.hasRemaining()) {
+                channel.write(byteBuffer);
+            }
+            hasher.update(buffer, 0, read);
+        }
+    }
+
+    private Session load(final UUID id, final String tenant, final String realm) {
+        final var properties = new Properties();
+        try (final var inputStream = Files.newInputStream(sessionFile(id))) {
+            properties.load(inputStream);
+        } catch (NoSuchFileException e) {
+            throw new UploadNotFoundException(id.toString());
+        } catch (IOException e) {
+            log.error("Could not read upload session {}", id, e);
+            throw new UploadNotFoundException(id.toString());
+        }
+
+        final var session = new Session(
+                id,
+                properties.getProperty("tenant", ""),
+                properties.getProperty("realm", ""),
+                properties.getProperty("path", ""),
+                properties.getProperty("filename", ""),
+                Long.parseLong(properties.getProperty("offset", "0")),
+                properties.getProperty("hash", ""),
+                Instant.ofEpochMilli(Long.parseLong(properties.getProperty("created", "0")))
+        );
+
+        // Sessions of other realms are indistinguishable from missing ones
+        if (!session.tenant().equals(tenant) || !session.realm().equals(realm)) {
+            log.info("Upload {} requested from foreign realm {}/{}", id, tenant, realm);
+            throw new UploadNotFoundException(id.toString());
+        }
+
+        return session;
+    }
+
+    private void save(final Session session) {
+        final var properties = new Properties();
+        properties.setProperty("tenant", session.tenant());
+        properties.setProperty("realm", session.realm());
+        properties.setProperty("path", session.path());
+        properties.setProperty("filename", session.filename());
+        properties.setProperty("offset", Long.toString(session.offset()));
+        properties.setProperty("hash", session.hashState());
+        properties.setProperty("created", Long.toString(session.created().toEpochMilli()));
+
+        try {
+            final var tmpFile = Files.createTempFile(uploadDirectory, session.id().toString(), "");
+            try (OutputStream outputStream = Files.newOutputStream(tmpFile, StandardOpenOption.WRITE, StandardOpenOption.SYNC)) {
+                properties.store(outputStream, null);
+            }
+            Files.move(tmpFile, sessionFile(session.id()), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.error("Could not write upload session {}", session.id(), e);
+            throw new UncheckedIOException("Could not write upload session " + session.id(), e);
+        }
+    }
+
+    private void purgeStaleSessions() throws IOException {
+        final var threshold = Instant.now().minus(SESSION_TTL);
+        try (final var files = Files.list(uploadDirectory)) {
+            for (final var file : (Iterable<Path>) files::iterator) {
+                try {
+                    if (Files.getLastModifiedTime(file).toInstant().isBefore(threshold)) {
+                        log.info("Removing stale upload file {}", file);
+                        Files.deleteIfExists(file);
+                        forgetLock(file);
+                    }
+                } catch (NoSuchFileException e) {
+                    log.debug("Upload file {} vanished during purge", file);
+                }
+            }
+        }
+    }
+
+    private void forgetLock(final Path file) {
+        final var fileName = file.getFileName().toString();
+        if (!fileName.endsWith(SESSION_SUFFIX)) {
+            return;
+        }
+        try {
+            locks.remove(UUID.fromString(fileName.substring(0, fileName.length() - SESSION_SUFFIX.length())));
+        } catch (IllegalArgumentException e) {
+            log.debug("{} is no upload session", file);
+        }
+    }
+
+    private Path sessionFile(final UUID id) {
+        return uploadDirectory.resolve(id + SESSION_SUFFIX);
+    }
+
+    private Path partFile(final UUID id) {
+        return uploadDirectory.resolve(id + PART_SUFFIX);
+    }
+
+}
@@ -0,0 +1,334 @@
+package ch.unibas.medizin.depot.util;
+
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the entries of a ZIP, TAR or gzip-compressed TAR stream one after the other, telling the formats apart by
+ * their leading bytes.
+ * <p>
+ * TAR support covers ustar and GNU archives including long names and PAX path and size records, which is what common
+ * tools write. Only regular files and folders are reported as such; links and devices come back as entries that are
+ * neither.
+ */
+@NullMarked
+public abstract class ArchiveReader implements AutoCloseable {
+
+    public record Entry(String name, boolean directory, boolean regularFile) {
+    }
+
+    private static final int BLOCK_SIZE = 512;
+
+    private static final int ZIP_MAGIC = 0x504b0304;
+
+    private static final int GZIP_MAGIC = 0x1f8b;
+
+    /**
+     * Upper bound for GNU long name and PAX records, which are read into memory.
+     */
+    private static final int MAX_METADATA_SIZE = 64 * 1024;
+
+    public static ArchiveReader open(final InputStream inputStream) throws IOException {
+        final var buffered = inputStream instanceof BufferedInputStream bufferedInputStream ? bufferedInputStream : new BufferedInputStream(inputStream);
+        buffered.mark(4);
+        final var magic = buffered.readNBytes(4);
+        buffered.reset();
+
+        if (magic.length == 4 && readInt(magic) == ZIP_MAGIC) {
+            return new Zip(new ZipInputStream(buffered));
+        }
+        if (magic.length >= 2 && ((magic[0] & 0xff) << 8 | magic[1] & 0xff) == GZIP_MAGIC) {
+            return new Tar(new BufferedInputStream(new GZIPInputStream(buffered)));
+        }
+        return new Tar(buffered);
+    }
+
+    /**
+     * Advances to the next entry, skipping whatever is left of the current one.
+     *
+     * @return the entry or null at the end of the archive
+     */
+    public abstract @Nullable Entry next() throws IOException;
+
+    /**
+     * The content of the current entry. Closing it has no effect on the archive.
+     */
+    public abstract InputStream content();
+
+    @Override
+    public abstract void close() throws IOException;
+
+    private static int readInt(final byte[] bytes) {
+        return (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | bytes[3] & 0xff;
+    }
+
+    private static final class Zip extends ArchiveReader {
+
+        private final ZipInputStream zipInputStream;
+
+        Zip(final ZipInputStream zipInputStream) {
+            this.zipInputStream = zipInputStream;
+        }
+
+        @Override
+        public @Nullable Entry next() throws IOException {
+            final var entry = zipInputStream.getNextEntry();
+            if (entry == null) {
+                return null;
+            }
+            return new Entry(entry.getName(), entry.isDirectory(), !entry.isDirectory());
+        }
+
+        @Override
+        public InputStream content() {
+            return new EntryInputStream(zipInputStream, Long.MAX_VALUE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            zipInputStream.close();
+        }
+
+    }
+
+    private static final class Tar extends ArchiveReader {
+
+        private final InputStream inputStream;
+
+        private final byte[] header = new byte[BLOCK_SIZE];
+
+        private EntryInputStream current = new EntryInputStream(InputStream.nullInputStream(), 0);
+
+        private long padding;
+
+        Tar(final InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        public @Nullable Entry next() throws IOException {
+            String longName = null;
+            Long paxSize = null;
+
+            while (true) {
+                current.skipRemaining();
+                inputStream.skipNBytes(padding);
+                padding = 0;
+
+                final var read = inputStream.readNBytes(header, 0, BLOCK_SIZE);
+                if (read == 0 || read == BLOCK_SIZE && isZeroBlock()) {
+                    return null;
+                }
+                if (read < BLOCK_SIZE) {
+                    throw new IOException("Not a ZIP or TAR archive");
+                }
+                verifyChecksum();
+
+                final var type = (char) header[156];
+                final var size = paxSize != null ? paxSize : parseNumber(124, 12);
+                current = new EntryInputStream(inputStream, size);
+                padding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+
+                switch (type) {
+                    case 'L' -> {
+                        longName = trimNul(new String(readMetadata(size), StandardCharsets.UTF_8));
+                        continue;
+                    }
+                    case 'x' -> {
+                        final var records = new String(readMetadata(size), StandardCharsets.UTF_8);
+                        for (final var record : records.split("\n")) {
+                            final var space = record.indexOf(' ');
+                            final var equals = record.indexOf('=');
+                            if (space < 0 || equals < space) {
+                                continue;
+                            }
+                            final var key = record.substring(space + 1, equals);
+                            final var value = record.substring(equals + 1);
+                            if (key.equals("path")) {
+                                longName = value;
+                            } else if (key.equals("size")) {
+                                paxSize = parsePaxSize(value);
+                            }
+                        }
+                        continue;
+                    }
+                    case 'g' -> {
+                        continue;
+                    }
+                    default -> {
+                        // Regular entry, handled below
+                    }
+                }
+
+                final var name = longName != null ? longName : headerName();
+                final var directory = type == '5' || (type == '\0' || type == '0') && name.endsWith("/");
+                final var regularFile = !directory && (type == '0' || type == '\0' || type == '7');
+                return new Entry(name, directory, regularFile);
+            }
+        }
+
+        @Override
+        public InputStream content() {
+            return current;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+
+        private byte[] readMetadata(final long size) throws IOException {
+            if (size > MAX_METADATA_SIZE) {
+                throw new IOException("Archive metadata record of " + size + " bytes exceeds " + MAX_METADATA_SIZE);
+            }
+            return current.readAllBytes();
+        }
+
+        private static long parsePaxSize(final String value) throws IOException {
+            try {
+                final var size = Long.parseLong(value.trim());
+                if (size < 0) {
+                    throw new IOException("Not a ZIP or TAR archive");
+                }
+                return size;
+            } catch (NumberFormatException e) {
+                throw new IOException("Not a ZIP or TAR archive", e);
+            }
+        }
+
+        private boolean isZeroBlock() {
+            for (final var b : header) {
+                if (b != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void verifyChecksum() throws IOException {
+            final var expected = parseNumber(148, 8);
+            var sum = 0L;
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+            }
+            if (sum != expected) {
+                throw new IOException("Not a ZIP or TAR archive");
+            }
+        }
+
+        private String headerName() {
+            final var name = field(0, 100);
+            final var magic = field(257, 6);
+            if (magic.startsWith("ustar")) {
+                final var prefix = field(345, 155);
+                if (!prefix.isEmpty()) {
+                    return prefix + "/" + name;
+                }
+            }
+            return name;
+        }
+
+        private String field(final int offset, final int length) {
+            return trimNul(new String(header, offset, length, StandardCharsets.UTF_8));
+        }
+
+        private long parseNumber(final int offset, final int length) throws IOException {
+            // GNU base-256 encoding for sizes beyond the octal range
+            if ((header[offset] & 0x80) != 0) {
+                var value = (long) (header[offset] & 0x7f);
+                for (int i = offset + 1; i < offset + length; i++) {
+                    value = value << 8 | header[i] & 0xff;
+                }
+                return value;
+            }
+            final var text = new String(Arrays.copyOfRange(header, offset, offset + length), StandardCharsets.US_ASCII).replace('\0', ' ').trim();
+            try {
+                return text.isEmpty() ? 0 : Long.parseLong(text, 8);
+            } catch (NumberFormatException e) {
+                throw new IOException("Not a ZIP or TAR archive", e);
+            }
+        }
+
+        private static String trimNul(final String value) {
+            final var nul = value.indexOf('\0');
+            return nul < 0 ? value : value.substring(0, nul);
+        }
+
+    }
+
+    /**
+     * Limits reads to the current entry and ignores close, so consumers can treat it like a standalone stream.
+     */
+    private static final class EntryInputStream extends InputStream {
+
+        private final InputStream inputStream;
+
+        private long remaining;
+
+        EntryInputStream(final InputStream inputStream, final long length) {
+            this.inputStream = inputStream;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final var read = inputStream.read();
+            if (read == -1) {
+                return endOfStream();
+            }
+            remaining--;
+            return read;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final var read = inputStream.read(b, off, (int) Math.min(len, remaining));
+            if (read == -1) {
+                return endOfStream();
+            }
+            remaining -= read;
+            return read;
+        }
+
+        /**
+         * A ZIP entry ends with its stream, a TAR entry must not end before its declared size.
+         */
+        private int endOfStream() throws EOFException {
+            final var missing = remaining;
+            remaining = 0;
+            if (missing != Long.MAX_VALUE) {
+                throw new EOFException("Archive ends " + missing + " bytes before the end of the entry");
+            }
+            return -1;
+        }
+
+        void skipRemaining() throws IOException {
+            if (remaining > 0 && remaining != Long.MAX_VALUE) {
+                inputStream.skipNBytes(remaining);
+            }
+            remaining = 0;
+        }
+
+        @Override
+        public void close() {
+            // The archive stays open for the following entries
+        }
+
+    }
+
+}
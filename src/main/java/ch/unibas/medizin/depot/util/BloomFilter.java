@@ -0,0 +1,62 @@
+package ch.unibas.medizin.depot.util;
+
+import org.apache.commons.codec.digest.MurmurHash3;
+import org.jspecify.annotations.NullMarked;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed-size bloom filter over strings, using double hashing on the two halves of Murmur3 x64 128.
+ */
+@NullMarked
+public class BloomFilter {
+
+    private final long[] bits;
+
+    private final int hashes;
+
+    public BloomFilter(final int bitCount, final int hashes) {
+        this(new long[Math.max(1, (bitCount + 63) / 64)], hashes);
+    }
+
+    private BloomFilter(final long[] bits, final int hashes) {
+        this.bits = bits;
+        this.hashes = hashes;
+    }
+
+    public static BloomFilter of(final long[] bits, final int hashes) {
+        return new BloomFilter(bits.clone(), hashes);
+    }
+
+    public void add(final String value) {
+        final var hash = MurmurHash3.hash128x64(value.getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < hashes; i++) {
+            final var bit = index(hash, i);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(final String value) {
+        final var hash = MurmurHash3.hash128x64(value.getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < hashes; i++) {
+            final var bit = index(hash, i);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long[] toLongArray() {
+        return bits.clone();
+    }
+
+    public int hashes() {
+        return hashes;
+    }
+
+    private int index(final long[] hash, final int i) {
+        return (int) Long.remainderUnsigned(hash[0] + i * hash[1], bits.length * 64L);
+    }
+
+}
@@ -9,8 +9,6 @@ import java.util.regex.Pattern;
 @NullMarked
 public interface DepotUtil {
 
-    String LOGFILE_NAME = "depot-access.log";
-
     Pattern SLASH_DOT = Pattern.compile("/[.]");
     Pattern DOT_SLASH = Pattern.compile("[.]/");
     Pattern MULTIPLE_SLASHES = Pattern.compile("/+");
@@ -45,9 +43,9 @@ public interface DepotUtil {
             return false;
         }
 
-        final var candidateFilename = candidateAsPath.getFileName().toString();
+        final var candidateFilename = candidateAsPath.getFileName();
 
-        return isValidFilename(candidateFilename);
+        return candidateFilename != null && isValidFilename(candidateFilename.toString());
     }
 
     static boolean isValidTenantOrRealm(final String candidate) {
@@ -0,0 +1,58 @@
+package ch.unibas.medizin.depot.util;
+
+import org.jspecify.annotations.NullMarked;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Feeds every byte read through it into an {@link IncrementalMurmur3}, so a copy yields the content hash for free.
+ */
+@NullMarked
+public class HashingInputStream extends FilterInputStream {
+
+    private final IncrementalMurmur3 hasher = new IncrementalMurmur3();
+
+    public HashingInputStream(final InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        final var read = super.read();
+        if (read != -1) {
+            hasher.update(new byte[]{(byte) read}, 0, 1);
+        }
+        return read;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final var read = super.read(b, off, len);
+        if (read > 0) {
+            hasher.update(b, off, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) {
+        // Skipped bytes would be missing from the hash
+        return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public long length() {
+        return hasher.length();
+    }
+
+    public long[] hash() {
+        return hasher.finish();
+    }
+
+}
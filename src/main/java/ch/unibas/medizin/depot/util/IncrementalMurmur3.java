@@ -0,0 +1,251 @@
+package ch.unibas.medizin.depot.util;
+
+import org.jspecify.annotations.NullMarked;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Incremental Murmur3 x64 128-bit hash with seed 0.
+ * <p>
+ * Produces the same result as {@code MurmurHash3.hash128x64(byte[])} from commons-codec for inputs below 2 GiB,
+ * but consumes the data in arbitrary slices, so hashing a file only needs one fixed-size buffer.
+ */
+@NullMarked
+public final class IncrementalMurmur3 {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final int R1 = 31;
+    private static final int R2 = 27;
+    private static final int R3 = 33;
+    private static final int M = 5;
+    private static final int N1 = 0x52dce729;
+    private static final int N2 = 0x38495ab5;
+
+    private static final int BLOCK_SIZE = 16;
+
+    private static final String STATE_DELIMITER = ":";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final BlockingQueue<ByteBuffer> BUFFER_POOL = new ArrayBlockingQueue<>(32);
+
+    private final byte[] tail = new byte[BLOCK_SIZE];
+
+    private int tailLength;
+
+    private long length;
+
+    private long h1;
+
+    private long h2;
+
+    public static long[] hash(final Path file) throws IOException {
+        final var hasher = new IncrementalMurmur3();
+        final var buffer = acquireBuffer();
+        try (final var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                hasher.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+        return hasher.finish();
+    }
+
+    public static String toHex(final long[] hash128) {
+        return String.format("%016x%016x", hash128[0], hash128[1]);
+    }
+
+    public void update(final byte[] data, final int offset, final int count) {
+        update(ByteBuffer.wrap(data, offset, count));
+    }
+
+    public void update(final ByteBuffer data) {
+        final var buffer = data.order() == ByteOrder.LITTLE_ENDIAN ? data : data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        final var consumed = buffer.remaining();
+
+        if (tailLength > 0) {
+            final var fill = Math.min(BLOCK_SIZE - tailLength, buffer.remaining());
+            buffer.get(tail, tailLength, fill);
+            tailLength += fill;
+            if (tailLength < BLOCK_SIZE) {
+                advance(data, buffer, consumed);
+                return;
+            }
+            final var tailBuffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+            mixBlock(tailBuffer.getLong(0), tailBuffer.getLong(8));
+            tailLength = 0;
+        }
+
+        while (buffer.remaining() >= BLOCK_SIZE) {
+            mixBlock(buffer.getLong(), buffer.getLong());
+        }
+
+        tailLength = buffer.remaining();
+        buffer.get(tail, 0, tailLength);
+
+        advance(data, buffer, consumed);
+    }
+
+    /**
+     * Returns the hash of everything consumed so far without changing the state.
+     */
+    @SuppressWarnings("fallthrough")
+    public long[] finish() {
+        var r1 = h1;
+        var r2 = h2;
+        var k1 = 0L;
+        var k2 = 0L;
+
+        switch (tailLength) {
+            case 15:
+                k2 ^= (tail[14] & 0xffL) << 48;
+            case 14:
+                k2 ^= (tail[13] & 0xffL) << 40;
+            case 13:
+                k2 ^= (tail[12] & 0xffL) << 32;
+            case 12:
+                k2 ^= (tail[11] & 0xffL) << 24;
+            case 11:
+                k2 ^= (tail[10] & 0xffL) << 16;
+            case 10:
+                k2 ^= (tail[9] & 0xffL) << 8;
+            case 9:
+                k2 ^= tail[8] & 0xffL;
+                k2 *= C2;
+                k2 = Long.rotateLeft(k2, R3);
+                k2 *= C1;
+                r2 ^= k2;
+            case 8:
+                k1 ^= (tail[7] & 0xffL) << 56;
+            case 7:
+                k1 ^= (tail[6] & 0xffL) << 48;
+            case 6:
+                k1 ^= (tail[5] & 0xffL) << 40;
+            case 5:
+                k1 ^= (tail[4] & 0xffL) << 32;
+            case 4:
+                k1 ^= (tail[3] & 0xffL) << 24;
+            case 3:
+                k1 ^= (tail[2] & 0xffL) << 16;
+            case 2:
+                k1 ^= (tail[1] & 0xffL) << 8;
+            case 1:
+                k1 ^= tail[0] & 0xffL;
+                k1 *= C1;
+                k1 = Long.rotateLeft(k1, R1);
+                k1 *= C2;
+                r1 ^= k1;
+            default:
+                break;
+        }
+
+        // commons-codec mixes in the length as a sign-extended int
+        final var mixedLength = (long) (int) length;
+
+        r1 ^= mixedLength;
+        r2 ^= mixedLength;
+
+        r1 += r2;
+        r2 += r1;
+
+        r1 = fmix64(r1);
+        r2 = fmix64(r2);
+
+        r1 += r2;
+        r2 += r1;
+
+        return new long[]{r1, r2};
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Serializes the intermediate state, so hashing can resume in another process via {@link #restore(String)}.
+     */
+    public String state() {
+        return Long.toHexString(h1) + STATE_DELIMITER + Long.toHexString(h2) + STATE_DELIMITER + length + STATE_DELIMITER
+                + HexFormat.of().formatHex(tail, 0, tailLength);
+    }
+
+    public static IncrementalMurmur3 restore(final String state) {
+        final var fields = state.split(STATE_DELIMITER, -1);
+        if (fields.length != 4) {
+            throw new IllegalArgumentException("Invalid hash state");
+        }
+
+        final var tailBytes = HexFormat.of().parseHex(fields[3]);
+        if (tailBytes.length >= BLOCK_SIZE) {
+            throw new IllegalArgumentException("Invalid hash state");
+        }
+
+        final var hasher = new IncrementalMurmur3();
+        hasher.h1 = Long.parseUnsignedLong(fields[0], 16);
+        hasher.h2 = Long.parseUnsignedLong(fields[1], 16);
+        hasher.length = Long.parseLong(fields[2]);
+        hasher.tailLength = tailBytes.length;
+        System.arraycopy(tailBytes, 0, hasher.tail, 0, tailBytes.length);
+        return hasher;
+    }
+
+    private void advance(final ByteBuffer original, final ByteBuffer view, final int consumed) {
+        length += consumed;
+        if (view != original) {
+            original.position(original.position() + consumed);
+        }
+    }
+
+    private void mixBlock(long k1, long k2) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, R1);
+        k1 *= C2;
+        h1 ^= k1;
+
+        h1 = Long.rotateLeft(h1, R2);
+        h1 += h2;
+        h1 = h1 * M + N1;
+
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, R3);
+        k2 *= C1;
+        h2 ^= k2;
+
+        h2 = Long.rotateLeft(h2, R1);
+        h2 += h1;
+        h2 = h2 * M + N2;
+    }
+
+    private static long fmix64(long hash) {
+        hash ^= (hash >>> 33);
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= (hash >>> 33);
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= (hash >>> 33);
+        return hash;
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        final var buffer = BUFFER_POOL.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void releaseBuffer(final ByteBuffer buffer) {
+        buffer.clear();
+        //noinspection ResultOfMethodCallIgnored
+        BUFFER_POOL.offer(buffer);
+    }
+
+}
@@ -0,0 +1,61 @@
+package ch.unibas.medizin.depot.util;
+
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Small thread-safe map that evicts the least recently accessed entry once {@code maxEntries} is exceeded.
+ */
+@NullMarked
+public class LruCache<K, V> {
+
+    private final LinkedHashMap<K, V> entries;
+
+    public LruCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public synchronized @Nullable V get(final K key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(final K key, final V value) {
+        entries.put(key, value);
+    }
+
+    public synchronized @Nullable V remove(final K key) {
+        return entries.remove(key);
+    }
+
+    public synchronized boolean removeIf(final Predicate<K> keyPredicate) {
+        return entries.keySet().removeIf(keyPredicate);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized List<Map.Entry<K, V>> snapshot() {
+        final var snapshot = new ArrayList<Map.Entry<K, V>>(entries.size());
+        for (final var entry : entries.entrySet()) {
+            snapshot.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+        return snapshot;
+    }
+
+}
@@ -0,0 +1,60 @@
+package ch.unibas.medizin.depot.util;
+
+import org.jspecify.annotations.NullMarked;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Keeps a copy of the first bytes read through it, e.g. for magic-byte content type detection after a copy.
+ */
+@NullMarked
+public class PrefixCapturingInputStream extends FilterInputStream {
+
+    private final byte[] prefix;
+
+    private int prefixLength;
+
+    public PrefixCapturingInputStream(final InputStream in, final int capacity) {
+        super(in);
+        this.prefix = new byte[capacity];
+    }
+
+    @Override
+    public int read() throws IOException {
+        final var read = super.read();
+        if (read != -1 && prefixLength < prefix.length) {
+            prefix[prefixLength++] = (byte) read;
+        }
+        return read;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final var read = super.read(b, off, len);
+        if (read > 0 && prefixLength < prefix.length) {
+            final var captured = Math.min(read, prefix.length - prefixLength);
+            System.arraycopy(b, off, prefix, prefixLength, captured);
+            prefixLength += captured;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) {
+        // Skipped bytes would leave a gap in the prefix
+        return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public byte[] prefix() {
+        return Arrays.copyOf(prefix, prefixLength);
+    }
+
+}
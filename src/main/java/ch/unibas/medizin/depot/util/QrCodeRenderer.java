@@ -0,0 +1,144 @@
+package ch.unibas.medizin.depot.util;
+
+import io.nayuki.qrcodegen.QrCode;
+import org.jspecify.annotations.NullMarked;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Renders QR codes as black and white PNG or SVG.
+ * <p>
+ * The PNG is written directly as a 1-bit grayscale image, a QR code needing nothing more. Each row of modules is packed
+ * into bits once; the other pixel rows of the same module row use the PNG "up" filter, which turns them into zeros that
+ * compress to almost nothing. The SVG draws every horizontal run of dark modules as one path segment.
+ */
+@NullMarked
+public final class QrCodeRenderer {
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    private static final int FILTER_NONE = 0;
+
+    private static final int FILTER_UP = 2;
+
+    private QrCodeRenderer() {
+    }
+
+    /**
+     * @param scale  pixels per module
+     * @param border light modules around the code
+     */
+    public static byte[] toPng(final QrCode qrCode, final int scale, final int border) {
+        final var modules = qrCode.size + border * 2;
+        final var width = modules * scale;
+        final var rowBytes = (width + 7) / 8;
+
+        final var idat = new ByteArrayOutputStream();
+        final var deflater = new Deflater(Deflater.BEST_SPEED);
+        try (final var deflaterOutputStream = new DeflaterOutputStream(idat, deflater)) {
+            final var row = new byte[rowBytes];
+            final var repeatedRow = new byte[rowBytes + 1];
+            repeatedRow[0] = FILTER_UP;
+            for (int y = 0; y < modules; y++) {
+                packRow(qrCode, y - border, border, scale, row);
+                deflaterOutputStream.write(FILTER_NONE);
+                deflaterOutputStream.write(row);
+                for (int i = 1; i < scale; i++) {
+                    deflaterOutputStream.write(repeatedRow);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+
+        final var png = new ByteArrayOutputStream(idat.size() + 64);
+        try (final var dataOutputStream = new DataOutputStream(png)) {
+            dataOutputStream.write(PNG_SIGNATURE);
+
+            final var ihdr = new ByteArrayOutputStream(13);
+            final var ihdrData = new DataOutputStream(ihdr);
+            ihdrData.writeInt(width);
+            ihdrData.writeInt(width);
+            ihdrData.writeByte(1); // bit depth
+            ihdrData.writeByte(0); // grayscale
+            ihdrData.writeByte(0); // deflate
+            ihdrData.writeByte(0); // adaptive filtering
+            ihdrData.writeByte(0); // no interlace
+            writeChunk(dataOutputStream, "IHDR", ihdr.toByteArray());
+            writeChunk(dataOutputStream, "IDAT", idat.toByteArray());
+            writeChunk(dataOutputStream, "IEND", new byte[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return png.toByteArray();
+    }
+
+    /**
+     * @param border light modules around the code
+     */
+    public static String toSvg(final QrCode qrCode, final int border) {
+        final var modules = qrCode.size + border * 2;
+        final var builder = new StringBuilder(qrCode.size * qrCode.size);
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" viewBox=\"0 0 ").append(modules).append(' ').append(modules)
+                .append("\" shape-rendering=\"crispEdges\">\n")
+                .append("<rect width=\"100%\" height=\"100%\" fill=\"#FFFFFF\"/>\n")
+                .append("<path fill=\"#000000\" d=\"");
+        for (int y = 0; y < qrCode.size; y++) {
+            var x = 0;
+            while (x < qrCode.size) {
+                if (!qrCode.getModule(x, y)) {
+                    x++;
+                    continue;
+                }
+                final var start = x;
+                while (x < qrCode.size && qrCode.getModule(x, y)) {
+                    x++;
+                }
+                builder.append('M').append(start + border).append(',').append(y + border)
+                        .append('h').append(x - start).append("v1h-").append(x - start).append('z');
+            }
+        }
+        builder.append("\"/>\n</svg>\n");
+        return builder.toString();
+    }
+
+    private static void packRow(final QrCode qrCode, final int moduleY, final int border, final int scale, final byte[] row) {
+        // Light pixels are 1 in grayscale, so start from all white and clear the dark ones
+        Arrays.fill(row, (byte) 0xff);
+        if (moduleY < 0 || moduleY >= qrCode.size) {
+            return;
+        }
+        for (int x = 0; x < qrCode.size; x++) {
+            if (!qrCode.getModule(x, moduleY)) {
+                continue;
+            }
+            final var firstPixel = (x + border) * scale;
+            for (int pixel = firstPixel; pixel < firstPixel + scale; pixel++) {
+                row[pixel >>> 3] &= (byte) ~(0x80 >>> (pixel & 7));
+            }
+        }
+    }
+
+    private static void writeChunk(final DataOutputStream dataOutputStream, final String type, final byte[] data) throws IOException {
+        final var typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        final var crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        dataOutputStream.writeInt(data.length);
+        dataOutputStream.write(typeBytes);
+        dataOutputStream.write(data);
+        dataOutputStream.writeInt((int) crc.getValue());
+    }
+
+}
@@ -0,0 +1,153 @@
+package ch.unibas.medizin.depot.security;
+
+import ch.unibas.medizin.depot.config.DepotProperties;
+import ch.unibas.medizin.depot.service.TokenRevocationService;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class JWTAuthorizationFilterTest {
+
+    private static final String SECRET = "test-secret";
+
+    private final DepotProperties depotProperties = new DepotProperties(Path.of("/tmp/depot"), "http://localhost", SECRET, Map.of("tenant", new DepotProperties.Tenant("password", false, false, false, false)));
+
+    private final TokenRevocationService tokenRevocationService = new TokenRevocationService(depotProperties);
+
+    private final JWTAuthorizationFilter filter = new JWTAuthorizationFilter(depotProperties, Algorithm.HMAC256(SECRET), tokenRevocationService);
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void repeated_token_authenticates_every_request() throws Exception {
+        var token = token(SECRET, "rw", Instant.now().plus(1, ChronoUnit.HOURS));
+
+        for (int i = 0; i < 3; i++) {
+            var authentication = authenticate(token);
+            assertNotNull(authentication);
+            assertEquals("tenant" + JWTAuthorizationFilter.TOKEN_DATA_DELIMITER + "realm" + JWTAuthorizationFilter.TOKEN_DATA_DELIMITER + "subject", authentication.getName());
+            assertEquals(List.of("ROLE_READ", "ROLE_WRITE"), authentication.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList());
+        }
+    }
+
+    @Test
+    void principal_carries_mode_and_resolved_realm_folder() throws Exception {
+        var authentication = authenticate(token(SECRET, "rd", Instant.now().plus(1, ChronoUnit.HOURS)));
+        assertNotNull(authentication);
+
+        var principal = assertInstanceOf(DepotPrincipal.class, authentication.getPrincipal());
+        assertEquals("tenant", principal.tenant());
+        assertEquals("realm", principal.realm());
+        assertEquals("subject", principal.subject());
+        assertEquals(Path.of("/tmp/depot/tenant/realm").toAbsolutePath(), principal.basePath());
+        assertTrue(principal.canRead());
+        assertFalse(principal.canWrite());
+        assertTrue(principal.canDelete());
+        assertNotNull(principal.tenantConfig());
+    }
+
+    @Test
+    void foreign_signature_is_rejected() throws Exception {
+        assertNull(authenticate(token("other-secret", "r", Instant.now().plus(1, ChronoUnit.HOURS))));
+    }
+
+    @Test
+    void blank_realm_is_rejected() throws Exception {
+        var token = JWT.create()
+                .withIssuer("depot")
+                .withClaim("tenant", "tenant")
+                .withClaim("realm", " ")
+                .withClaim("mode", "r")
+                .withSubject("subject")
+                .withExpiresAt(Instant.now().plus(1, ChronoUnit.HOURS))
+                .sign(Algorithm.HMAC256(SECRET));
+        assertNull(authenticate(token));
+    }
+
+    @Test
+    void cached_token_is_rejected_once_expired() throws Exception {
+        var expiresAt = Instant.now().plus(2, ChronoUnit.SECONDS).truncatedTo(ChronoUnit.SECONDS);
+        var token = token(SECRET, "r", expiresAt);
+
+        assertNotNull(authenticate(token));
+
+        Thread.sleep(Math.max(0, expiresAt.toEpochMilli() - System.currentTimeMillis()) + 100);
+        assertNull(authenticate(token));
+    }
+
+    @Test
+    void cached_token_is_rejected_once_revoked() throws Exception {
+        var id = UUID.randomUUID().toString();
+        var expiresAt = Instant.now().plus(1, ChronoUnit.HOURS);
+        var token = token(SECRET, "r", expiresAt, id);
+
+        assertNotNull(authenticate(token));
+
+        assertTrue(tokenRevocationService.revoke("other_tenant", id, expiresAt));
+        assertNotNull(authenticate(token));
+
+        assertTrue(tokenRevocationService.revoke("tenant", id, expiresAt));
+        assertFalse(tokenRevocationService.revoke("tenant", id, expiresAt));
+        assertFalse(tokenRevocationService.revoke("tenant", UUID.randomUUID().toString(), Instant.now().minusSeconds(1)));
+        assertNull(authenticate(token));
+        assertNotNull(authenticate(token(SECRET, "r", expiresAt)));
+    }
+
+    @Test
+    void revocations_survive_a_restart() throws Exception {
+        var id = UUID.randomUUID().toString();
+        var expiresAt = Instant.now().plus(1, ChronoUnit.HOURS);
+        tokenRevocationService.revoke("tenant", id, expiresAt);
+
+        var restarted = new JWTAuthorizationFilter(depotProperties, Algorithm.HMAC256(SECRET), new TokenRevocationService(depotProperties));
+        var request = new MockHttpServletRequest("GET", "/list");
+        request.addHeader("Authorization", "Bearer " + token(SECRET, "r", expiresAt, id));
+        restarted.doFilter(request, new MockHttpServletResponse(), mock(FilterChain.class));
+        assertNull(SecurityContextHolder.getContext().getAuthentication());
+    }
+
+    private Authentication authenticate(String token) throws Exception {
+        SecurityContextHolder.clearContext();
+        var request = new MockHttpServletRequest("GET", "/list");
+        request.addHeader("Authorization", "Bearer " + token);
+        filter.doFilter(request, new MockHttpServletResponse(), mock(FilterChain.class));
+        return SecurityContextHolder.getContext().getAuthentication();
+    }
+
+    private static String token(String secret, String mode, Instant expiresAt) {
+        return token(secret, mode, expiresAt, UUID.randomUUID().toString());
+    }
+
+    private static String token(String secret, String mode, Instant expiresAt, String id) {
+        return JWT.create()
+                .withIssuer("depot")
+                .withClaim("tenant", "tenant")
+                .withClaim("realm", "realm")
+                .withClaim("mode", mode)
+                .withSubject("subject")
+                .withExpiresAt(expiresAt)
+                .withJWTId(id)
+                .sign(Algorithm.HMAC256(secret));
+    }
+
+}
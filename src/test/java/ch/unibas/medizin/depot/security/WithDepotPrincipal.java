@@ -0,0 +1,31 @@
+package ch.unibas.medizin.depot.security;
+
+import org.springframework.security.test.context.support.WithSecurityContext;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Runs a test as the caller of a depot token, with the {@link DepotPrincipal} that {@link JWTAuthorizationFilter}
+ * would install for it.
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+@Documented
+@WithSecurityContext(factory = WithDepotPrincipalSecurityContextFactory.class)
+public @interface WithDepotPrincipal {
+
+    String tenant();
+
+    String realm() default "realm";
+
+    String subject() default "subject";
+
+    String mode() default "rwd";
+
+}
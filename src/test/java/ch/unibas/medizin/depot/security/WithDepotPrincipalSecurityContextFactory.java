@@ -0,0 +1,26 @@
+package ch.unibas.medizin.depot.security;
+
+import ch.unibas.medizin.depot.config.DepotProperties;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.test.context.support.WithSecurityContextFactory;
+
+public class WithDepotPrincipalSecurityContextFactory implements WithSecurityContextFactory<WithDepotPrincipal> {
+
+    private final DepotProperties depotProperties;
+
+    public WithDepotPrincipalSecurityContextFactory(DepotProperties depotProperties) {
+        this.depotProperties = depotProperties;
+    }
+
+    @Override
+    public SecurityContext createSecurityContext(WithDepotPrincipal withDepotPrincipal) {
+        var principal = DepotPrincipal.of(depotProperties, withDepotPrincipal.tenant(), withDepotPrincipal.realm(), withDepotPrincipal.subject(),
+                DepotPrincipal.modeOf(withDepotPrincipal.mode()));
+        var context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(new UsernamePasswordAuthenticationToken(principal, null, JWTAuthorizationFilter.toAuthorities(principal)));
+        return context;
+    }
+
+}
@@ -1,12 +1,12 @@
 package ch.unibas.medizin.depot.service;
 
 import ch.unibas.medizin.depot.config.DepotProperties;
+import ch.unibas.medizin.depot.security.WithDepotPrincipal;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.mock.web.MockMultipartFile;
-import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.util.FileSystemUtils;
 
 import java.io.IOException;
@@ -19,8 +19,6 @@ import static org.junit.jupiter.api.Assertions.*;
 @SpringBootTest
 public class BackupTests {
 
-    private static final String BACKUP_USER = "tenant_b" + Character.LINE_SEPARATOR + "realm" + Character.LINE_SEPARATOR + "subject";
-
     @Autowired
     private DepotService depotService;
 
@@ -38,7 +36,7 @@ public class BackupTests {
     }
 
     @Test
-    @WithMockUser(username = BACKUP_USER)
+    @WithDepotPrincipal(tenant = "tenant_b")
     public void Backup_created_on_overwrite_with_different_content() {
         var file1 = new MockMultipartFile("file", "test.txt", "text/plain", "content v1".getBytes(UTF_8));
         depotService.put(file1, "backup", false);
@@ -52,7 +50,7 @@ public class BackupTests {
     }
 
     @Test
-    @WithMockUser(username = BACKUP_USER)
+    @WithDepotPrincipal(tenant = "tenant_b")
     public void No_backup_on_overwrite_with_same_content() {
         var file1 = new MockMultipartFile("file", "same.txt", "text/plain", "identical".getBytes(UTF_8));
         depotService.put(file1, "backup", false);
@@ -65,7 +63,7 @@ public class BackupTests {
     }
 
     @Test
-    @WithMockUser(username = BACKUP_USER)
+    @WithDepotPrincipal(tenant = "tenant_b")
     public void Multiple_backups_numbered_sequentially() {
         var file1 = new MockMultipartFile("file", "multi.txt", "text/plain", "v1".getBytes(UTF_8));
         depotService.put(file1, "backup", false);
@@ -83,7 +81,7 @@ public class BackupTests {
     }
 
     @Test
-    @WithMockUser(username = BACKUP_USER)
+    @WithDepotPrincipal(tenant = "tenant_b")
     public void Backup_preserves_original_content() throws IOException {
         var originalContent = "original content";
         var file1 = new MockMultipartFile("file", "preserve.txt", "text/plain", originalContent.getBytes(UTF_8));
@@ -98,7 +96,7 @@ public class BackupTests {
     }
 
     @Test
-    @WithMockUser(username = BACKUP_USER)
+    @WithDepotPrincipal(tenant = "tenant_b")
     public void No_backup_on_first_upload() {
         var file = new MockMultipartFile("file", "fresh.txt", "text/plain", "content".getBytes(UTF_8));
         depotService.put(file, "backup", false);
@@ -108,7 +106,7 @@ public class BackupTests {
     }
 
     @Test
-    @WithMockUser(username = BACKUP_USER)
+    @WithDepotPrincipal(tenant = "tenant_b")
     public void Backup_folders_not_in_list_response() {
         var file1 = new MockMultipartFile("file", "listed.txt", "text/plain", "v1".getBytes(UTF_8));
         depotService.put(file1, "backup", false);
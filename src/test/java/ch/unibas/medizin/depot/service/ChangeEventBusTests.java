@@ -0,0 +1,76 @@
+package ch.unibas.medizin.depot.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static ch.unibas.medizin.depot.service.ChangeJournalService.ChangeType.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeEventBusTests {
+
+    private final ChangeEventBus changeEventBus = new ChangeEventBus();
+
+    @Test
+    public void Put_after_move_of_the_same_path_keeps_the_move() throws InterruptedException {
+        try (var subscription = changeEventBus.subscribe("tenant", "realm")) {
+            publish(1, MOVE, "a", "b");
+            publish(2, PUT, "a", null);
+
+            assertEquals(List.of(1L, 2L), sequences(subscription));
+        }
+    }
+
+    @Test
+    public void Put_replaces_a_pending_put_of_the_same_path() throws InterruptedException {
+        try (var subscription = changeEventBus.subscribe("tenant", "realm")) {
+            publish(1, PUT, "a", null);
+            publish(2, PUT, "b", null);
+            publish(3, PUT, "a", null);
+            publish(4, PUT, "a/x", null);
+            publish(5, MOVE, "a", "c");
+            publish(6, PUT, "a", null);
+
+            assertEquals(List.of(2L, 3L, 4L, 5L, 6L), sequences(subscription));
+        }
+    }
+
+    @Test
+    public void Delete_drops_pending_puts_below_it_unless_moved_in_between() throws InterruptedException {
+        try (var subscription = changeEventBus.subscribe("tenant", "realm")) {
+            publish(1, PUT, "a/x", null);
+            publish(2, PUT, "ab", null);
+            publish(3, PUT, "c/y", null);
+            publish(4, MOVE, "c", "d");
+            publish(5, DELETE, "a", null);
+            publish(6, DELETE, "c", null);
+
+            assertEquals(List.of(2L, 3L, 4L, 5L, 6L), sequences(subscription));
+        }
+    }
+
+    @Test
+    public void Expire_makes_subscribers_catch_up_from_the_journal() throws InterruptedException {
+        try (var subscription = changeEventBus.subscribe("tenant", "realm")) {
+            publish(1, PUT, "a", null);
+            changeEventBus.expire("tenant", "realm");
+
+            var batch = subscription.poll(Duration.ZERO);
+            assertTrue(batch.overflowed());
+            assertTrue(batch.changes().isEmpty());
+        }
+    }
+
+    private void publish(long sequence, ChangeJournalService.ChangeType type, String path, String toPath) {
+        changeEventBus.publish("tenant", "realm", new ChangeJournalService.Change(1, sequence, Instant.now(), type, path, toPath));
+    }
+
+    private static List<Long> sequences(ChangeEventBus.Subscription subscription) throws InterruptedException {
+        var batch = subscription.poll(Duration.ZERO);
+        assertFalse(batch.overflowed());
+        return batch.changes().stream().map(ChangeJournalService.Change::sequence).toList();
+    }
+
+}
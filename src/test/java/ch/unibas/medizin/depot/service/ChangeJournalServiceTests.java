@@ -0,0 +1,75 @@
+package ch.unibas.medizin.depot.service;
+
+import ch.unibas.medizin.depot.config.DepotProperties;
+import ch.unibas.medizin.depot.exception.CursorExpiredException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static ch.unibas.medizin.depot.service.ChangeJournalService.ChangeType.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeJournalServiceTests {
+
+    @TempDir
+    private Path baseDirectory;
+
+    @Test
+    public void Compaction_keeps_what_a_later_move_carried_away() {
+        var changeJournalService = changeJournalService();
+        try {
+            changeJournalService.record("tenant", "realm", PUT, "a/x", null);
+            changeJournalService.record("tenant", "realm", MOVE, "a", "b");
+            changeJournalService.record("tenant", "realm", PUT, "a/x", null);
+            changeJournalService.record("tenant", "realm", PUT, "c/y", null);
+            changeJournalService.record("tenant", "realm", DELETE, "c", null);
+            // Enough overwrites of one file to seal and compact every segment holding the changes above
+            for (int i = 0; i < 100_000; i++) {
+                changeJournalService.record("tenant", "realm", PUT, "filler", null);
+            }
+        } finally {
+            // Closing waits for the compaction running in the background
+            changeJournalService.close();
+        }
+
+        var reopened = changeJournalService();
+        try {
+            // Segments up to sequence 90000 are compacted, the filler only keeps its latest overwrite there
+            var changes = reopened.changes("tenant", "realm", ChangeJournalService.Cursor.START, 5).changes();
+            assertEquals(List.of("1 PUT a/x", "2 MOVE a", "3 PUT a/x", "5 DELETE c", "90000 PUT filler"),
+                    changes.stream().map(change -> change.sequence() + " " + change.type() + " " + change.path()).toList());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void Cursors_only_survive_a_clean_shutdown() {
+        var changeJournalService = changeJournalService();
+        changeJournalService.record("tenant", "realm", PUT, "a", null);
+        var cursor = changeJournalService.changes("tenant", "realm", null, 0).cursor();
+        changeJournalService.close();
+
+        var reopened = changeJournalService();
+        assertTrue(reopened.changes("tenant", "realm", cursor, 10).changes().isEmpty());
+        reopened.record("tenant", "realm", PUT, "b", null);
+
+        // Not closed, as after a crash that may have lost the change to b
+        var recovered = changeJournalService();
+        try {
+            assertThrows(CursorExpiredException.class, () -> recovered.changes("tenant", "realm", cursor, 10));
+            assertEquals(List.of("a", "b"), recovered.changes("tenant", "realm", ChangeJournalService.Cursor.START, 10).changes().stream()
+                    .map(ChangeJournalService.Change::path).toList());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    private ChangeJournalService changeJournalService() {
+        return new ChangeJournalService(new DepotProperties(baseDirectory, "http://localhost", "secret", Map.of()), new ChangeEventBus());
+    }
+
+}
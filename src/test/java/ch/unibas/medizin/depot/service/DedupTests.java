@@ -0,0 +1,122 @@
+package ch.unibas.medizin.depot.service;
+
+import ch.unibas.medizin.depot.config.DepotProperties;
+import ch.unibas.medizin.depot.security.WithDepotPrincipal;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+public class DedupTests {
+
+    @Autowired
+    private DepotService depotService;
+
+    @Autowired
+    private BlobStoreService blobStoreService;
+
+    @Autowired
+    private DepotProperties depotProperties;
+
+    private Path realmPath;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        realmPath = depotProperties.getBaseDirectory().resolve("tenant_c").resolve("realm").resolve("dedup");
+        if (Files.exists(realmPath)) {
+            FileSystemUtils.deleteRecursively(realmPath);
+        }
+        blobStoreService.sweep("tenant_c");
+    }
+
+    @Test
+    @WithDepotPrincipal(tenant = "tenant_c")
+    public void Duplicate_uploads_share_one_blob() throws IOException {
+        var file = new MockMultipartFile("file", "handout.pdf", "application/pdf", "handout".getBytes(UTF_8));
+        depotService.put(file, "dedup/a", false);
+        depotService.put(file, "dedup/b", false);
+
+        var first = realmPath.resolve("a").resolve("handout.pdf");
+        var second = realmPath.resolve("b").resolve("handout.pdf");
+        assertTrue(Files.isSameFile(first, second));
+        assertEquals(3, linkCount(first));
+        assertEquals("handout", Files.readString(second));
+    }
+
+    @Test
+    @WithDepotPrincipal(tenant = "tenant_c")
+    public void Identical_reupload_keeps_file_and_backups_link_blobs() throws IOException {
+        var v1 = new MockMultipartFile("file", "video.mp4", "video/mp4", "v1".getBytes(UTF_8));
+        depotService.put(v1, "dedup", false);
+        var stored = realmPath.resolve("video.mp4");
+        var modified = Files.getLastModifiedTime(stored);
+
+        var cursor = depotService.changes(null, 10).cursor();
+        depotService.put(v1, "dedup", false);
+        assertEquals(modified, Files.getLastModifiedTime(stored));
+        assertTrue(depotService.changes(cursor, 10).changes().isEmpty());
+
+        depotService.put(new MockMultipartFile("file", "video.mp4", "video/mp4", "v2".getBytes(UTF_8)), "dedup", false);
+        depotService.put(v1, "dedup", false);
+        var backup = realmPath.resolve(".video.mp4").resolve("video.mp4_1");
+        assertTrue(Files.isSameFile(backup, stored));
+    }
+
+    @Test
+    @WithDepotPrincipal(tenant = "tenant_c")
+    public void Overwriting_with_stored_content_changes_validators() throws IOException {
+        depotService.put(new MockMultipartFile("file", "old.txt", "text/plain", "old".getBytes(UTF_8)), "dedup", false);
+        depotService.put(new MockMultipartFile("file", "page.txt", "text/plain", "new".getBytes(UTF_8)), "dedup", false);
+        var before = depotService.get("dedup/page.txt").getHeaders();
+
+        // page.txt now links the older blob of old.txt, whose modification time lies before the replaced content
+        depotService.put(new MockMultipartFile("file", "page.txt", "text/plain", "old".getBytes(UTF_8)), "dedup", false);
+        var page = realmPath.resolve("page.txt");
+        assertTrue(Files.isSameFile(realmPath.resolve("old.txt"), page));
+
+        var after = depotService.get("dedup/page.txt").getHeaders();
+        assertEquals(-1, before.getLastModified());
+        assertEquals(-1, after.getLastModified());
+        assertNotEquals(before.getETag(), after.getETag());
+        assertEquals(depotService.get("dedup/old.txt").getHeaders().getETag(), after.getETag());
+    }
+
+    @Test
+    @WithDepotPrincipal(tenant = "tenant_c")
+    public void Sweep_removes_unreferenced_blobs_only() throws IOException {
+        depotService.put(new MockMultipartFile("file", "kept.txt", "text/plain", "kept".getBytes(UTF_8)), "dedup", false);
+        depotService.put(new MockMultipartFile("file", "gone.txt", "text/plain", "gone".getBytes(UTF_8)), "dedup", false);
+        assertEquals(2, linkCount(realmPath.resolve("gone.txt")));
+
+        var goneBlob = blob(realmPath.resolve("gone.txt"));
+        var keptBlob = blob(realmPath.resolve("kept.txt"));
+
+        depotService.delete("dedup/gone.txt");
+        blobStoreService.sweep("tenant_c");
+        assertFalse(Files.exists(goneBlob));
+        assertTrue(Files.exists(keptBlob));
+        assertEquals(2, linkCount(realmPath.resolve("kept.txt")));
+    }
+
+    private Path blob(Path file) throws IOException {
+        var sha256 = BlobStoreService.sha256(file);
+        var blob = depotProperties.getBaseDirectory().resolve(BlobStoreService.BLOB_DIRECTORY_NAME).resolve("tenant_c").resolve(sha256.substring(0, 2)).resolve(sha256);
+        assertTrue(Files.isSameFile(blob, file));
+        return blob;
+    }
+
+    private static int linkCount(Path file) throws IOException {
+        return ((Number) Files.getAttribute(file, "unix:nlink")).intValue();
+    }
+
+}
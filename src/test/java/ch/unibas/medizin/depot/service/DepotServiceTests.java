@@ -1,18 +1,31 @@
 package ch.unibas.medizin.depot.service;
 
+import ch.unibas.medizin.depot.dto.ChangeDto;
+import ch.unibas.medizin.depot.exception.CursorExpiredException;
+import ch.unibas.medizin.depot.security.WithDepotPrincipal;
 import jakarta.annotation.PostConstruct;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.test.context.support.WithMockUser;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
 
 @SpringBootTest
 public class DepotServiceTests {
@@ -20,13 +33,16 @@ public class DepotServiceTests {
     @Autowired
     private DepotService depotService;
 
+    @Autowired
+    private ChangeEventBus changeEventBus;
+
     @PostConstruct
     public void setGlobalSecurityContext() {
         SecurityContextHolder.setStrategyName(SecurityContextHolder.MODE_INHERITABLETHREADLOCAL);
     }
 
     @Test
-    @WithMockUser(username = "tenant" + Character.LINE_SEPARATOR + "realm" + Character.LINE_SEPARATOR + "subject")
+    @WithDepotPrincipal(tenant = "tenant")
     public void Concurrent_file_write() {
         var sizeInBytes = 10 * 1024 * 1024;
 
@@ -41,11 +57,143 @@ public class DepotServiceTests {
     }
 
     @Test
-    @WithMockUser(username = "tenant" + Character.LINE_SEPARATOR + "realm" + Character.LINE_SEPARATOR + "subject")
+    @WithDepotPrincipal(tenant = "tenant")
     public void Put_rejects_parent_directory_traversal_in_filename() {
         var mockFile = new MockMultipartFile("file", "../../../evil.txt", "text/plain", "x".getBytes(UTF_8));
         assertThrows(IllegalArgumentException.class,
                 () -> depotService.put(mockFile, "/traversal/", false));
     }
 
+    @Test
+    @WithDepotPrincipal(tenant = "tenant")
+    public void Hashed_listing_follows_overwrite() {
+        var first = depotService.put(new MockMultipartFile("file", "cached.txt", "text/plain", "first".getBytes(UTF_8)), "/hashcache/", true);
+        assertEquals(first.hash(), depotService.list("/hashcache/", true).getFirst().hash());
+        assertEquals(first.hash(), depotService.list("/hashcache/", true).getFirst().hash());
+
+        var second = depotService.put(new MockMultipartFile("file", "cached.txt", "text/plain", "second".getBytes(UTF_8)), "/hashcache/", false);
+        var listedHash = depotService.list("/hashcache/", true).getFirst().hash();
+        assertNotEquals(first.hash(), listedHash);
+        assertEquals("-", second.hash());
+
+        depotService.delete("/hashcache/cached.txt");
+        assertEquals(0, depotService.list("/hashcache/", true).size());
+    }
+
+    @Test
+    @WithDepotPrincipal(tenant = "tenant")
+    public void Folder_digest_changes_only_along_changed_path() {
+        depotService.delete("/merkle");
+        depotService.put(new MockMultipartFile("file", "a.txt", "text/plain", "a".getBytes(UTF_8)), "/merkle/left/", false);
+        depotService.put(new MockMultipartFile("file", "b.txt", "text/plain", "b".getBytes(UTF_8)), "/merkle/right/", false);
+
+        var root = depotService.digest("/merkle").digest();
+        var left = depotService.digest("/merkle/left").digest();
+        var right = depotService.digest("/merkle/right").digest();
+        assertEquals(root, depotService.digest("/merkle").digest());
+
+        depotService.put(new MockMultipartFile("file", "a.txt", "text/plain", "changed".getBytes(UTF_8)), "/merkle/left/", false);
+
+        assertNotEquals(root, depotService.digest("/merkle").digest());
+        assertNotEquals(left, depotService.digest("/merkle/left").digest());
+        assertEquals(right, depotService.digest("/merkle/right").digest());
+
+        var listedRight = depotService.list("/merkle", true).stream().filter(entry -> entry.name().equals("right")).findFirst().orElseThrow();
+        assertEquals(right, listedRight.hash());
+
+        depotService.move("/merkle/right/b.txt", "/merkle/left/b.txt");
+        assertNotEquals(right, depotService.digest("/merkle/right").digest());
+    }
+
+    @Test
+    @WithDepotPrincipal(tenant = "tenant")
+    public void Changes_since_cursor() {
+        depotService.delete("/journal");
+        var cursor = depotService.changes(null, 10).cursor();
+
+        depotService.put(new MockMultipartFile("file", "a.txt", "text/plain", "a".getBytes(UTF_8)), "/journal/", false);
+        depotService.move("/journal/a.txt", "/journal/b.txt");
+        depotService.delete("/journal/b.txt");
+
+        var changes = depotService.changes(cursor, 10);
+        assertEquals(3, changes.changes().size());
+        assertEquals("PUT journal/a.txt", changes.changes().get(0).type() + " " + changes.changes().get(0).path());
+        assertEquals("MOVE journal/a.txt", changes.changes().get(1).type() + " " + changes.changes().get(1).path());
+        assertEquals("journal/b.txt", changes.changes().get(1).toPath());
+        assertEquals("DELETE journal/b.txt", changes.changes().get(2).type() + " " + changes.changes().get(2).path());
+        assertFalse(changes.more());
+
+        var page = depotService.changes(cursor, 2);
+        assertEquals(2, page.changes().size());
+        assertTrue(page.more());
+        assertEquals(1, depotService.changes(page.cursor(), 2).changes().size());
+
+        assertTrue(depotService.changes(changes.cursor(), 10).changes().isEmpty());
+        var last = ChangeJournalService.Cursor.parse(changes.cursor());
+        assertThrows(CursorExpiredException.class, () -> depotService.changes(new ChangeJournalService.Cursor(last.epoch(), last.sequence() + 1).toString(), 10));
+        assertThrows(CursorExpiredException.class, () -> depotService.changes(new ChangeJournalService.Cursor(last.epoch() - 1, last.sequence()).toString(), 10));
+    }
+
+    @Test
+    @WithDepotPrincipal(tenant = "tenant")
+    public void Events_coalesce_live_changes_and_replay_missed_ones() throws Exception {
+        var cursor = depotService.changes(null, 10).cursor();
+
+        try (var subscription = changeEventBus.subscribe("tenant", "realm")) {
+            for (int i = 0; i < 3; i++) {
+                depotService.put(new MockMultipartFile("file", "e.txt", "text/plain", ("v" + i).getBytes(UTF_8)), "/events/", false);
+            }
+            var batch = subscription.poll(Duration.ofSeconds(1));
+            assertFalse(batch.overflowed());
+            assertEquals(1, batch.changes().size());
+            assertEquals("events/e.txt", batch.changes().getFirst().path());
+        }
+
+        var replayed = new ArrayList<ChangeDto>();
+        depotService.events(cursor, new DepotService.ChangeListener() {
+            @Override
+            public void changes(List<ChangeDto> changes) throws IOException {
+                replayed.addAll(changes);
+                throw new IOException("client gone");
+            }
+
+            @Override
+            public void resync(String cursor) {
+                fail("cursor must still be journaled");
+            }
+
+            @Override
+            public void heartbeat() throws IOException {
+                throw new IOException("client gone");
+            }
+        });
+        assertEquals(3, replayed.size());
+        assertTrue(replayed.stream().allMatch(change -> change.path().equals("events/e.txt")));
+    }
+
+    @Test
+    @WithDepotPrincipal(tenant = "tenant")
+    public void ETag_does_not_change_once_the_hash_is_cached() {
+        depotService.put(new MockMultipartFile("file", "tag.txt", "text/plain", "tag".getBytes(UTF_8)), "/etag/", false);
+        var before = depotService.get("/etag/tag.txt").getHeaders().getETag();
+
+        depotService.list("/etag", true);
+        assertEquals(before, depotService.get("/etag/tag.txt").getHeaders().getETag());
+    }
+
+    @Test
+    @WithDepotPrincipal(tenant = "tenant")
+    public void Hot_files_are_served_from_memory_until_overwritten() throws IOException {
+        depotService.put(new MockMultipartFile("file", "hot.txt", "text/plain", "first".getBytes(UTF_8)), "/hot/", false);
+
+        assertInstanceOf(FileSystemResource.class, depotService.get("/hot/hot.txt").getBody());
+        var cached = depotService.get("/hot/hot.txt");
+        assertFalse(cached.getBody() instanceof FileSystemResource);
+        assertEquals("first", cached.getBody().getContentAsString(UTF_8));
+        assertEquals(cached.getHeaders().getETag(), depotService.get("/hot/hot.txt").getHeaders().getETag());
+
+        depotService.put(new MockMultipartFile("file", "hot.txt", "text/plain", "second".getBytes(UTF_8)), "/hot/", false);
+        assertEquals("second", depotService.get("/hot/hot.txt").getBody().getContentAsString(UTF_8));
+    }
+
 }
@@ -0,0 +1,51 @@
+package ch.unibas.medizin.depot.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+public class LogServiceTests {
+
+    @Autowired
+    private LogService logService;
+
+    @Test
+    public void Queued_records_are_found_by_query() throws IOException {
+        var subject = UUID.randomUUID().toString();
+        var from = Instant.now();
+
+        for (int i = 0; i < 100; i++) {
+            logService.log("tenant_a", i % 2 == 0 ? "realm" : "other", i % 3 == 0 ? LogService.EventType.GET : LogService.EventType.PUT, subject, "file" + i);
+        }
+
+        var to = Instant.now().plus(Duration.ofSeconds(1));
+        var events = new ArrayList<LogService.AuditEvent>();
+        logService.query("tenant_a", from, to, null, subject, Set.of(), events::add);
+
+        assertEquals(100, events.size());
+        assertEquals("file0", events.getFirst().description());
+        assertEquals("file99", events.getLast().description());
+        assertEquals(0, logService.stats("tenant_a").depth());
+
+        var filtered = new ArrayList<LogService.AuditEvent>();
+        logService.query("tenant_a", from, to, "realm", subject, Set.of(LogService.EventType.GET), filtered::add);
+
+        assertEquals(17, filtered.size());
+        assertTrue(filtered.stream().allMatch(event -> event.realm().equals("realm") && event.type() == LogService.EventType.GET));
+
+        var none = new ArrayList<LogService.AuditEvent>();
+        logService.query("tenant_a", from, to, null, UUID.randomUUID().toString(), Set.of(), none::add);
+        assertTrue(none.isEmpty());
+    }
+
+}
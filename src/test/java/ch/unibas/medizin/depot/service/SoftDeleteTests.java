@@ -1,12 +1,12 @@
 package ch.unibas.medizin.depot.service;
 
 import ch.unibas.medizin.depot.config.DepotProperties;
+import ch.unibas.medizin.depot.security.WithDepotPrincipal;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.mock.web.MockMultipartFile;
-import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.util.FileSystemUtils;
 
 import java.io.IOException;
@@ -19,9 +19,6 @@ import static org.junit.jupiter.api.Assertions.*;
 @SpringBootTest
 public class SoftDeleteTests {
 
-    private static final String SOFT_DELETE_USER = "tenant_b" + Character.LINE_SEPARATOR + "realm" + Character.LINE_SEPARATOR + "subject";
-    private static final String HARD_DELETE_USER = "tenant_a" + Character.LINE_SEPARATOR + "realm" + Character.LINE_SEPARATOR + "subject";
-
     @Autowired
     private DepotService depotService;
 
@@ -44,7 +41,7 @@ public class SoftDeleteTests {
     }
 
     @Test
-    @WithMockUser(username = SOFT_DELETE_USER)
+    @WithDepotPrincipal(tenant = "tenant_b")
     public void Soft_delete_renames_file_with_dot_prefix() {
         var file = new MockMultipartFile("file", "doc.txt", "text/plain", "content".getBytes(UTF_8));
         depotService.put(file, "softdelete", false);
@@ -56,7 +53,7 @@ public class SoftDeleteTests {
     }
 
     @Test
-    @WithMockUser(username = SOFT_DELETE_USER)
+    @WithDepotPrincipal(tenant = "tenant_b")
     public void Soft_deleted_file_preserves_content() throws IOException {
         var content = "important data";
         var file = new MockMultipartFile("file", "preserve.txt", "text/plain", content.getBytes(UTF_8));
@@ -68,7 +65,7 @@ public class SoftDeleteTests {
     }
 
     @Test
-    @WithMockUser(username = SOFT_DELETE_USER)
+    @WithDepotPrincipal(tenant = "tenant_b")
     public void Soft_deleted_file_hidden_from_list() {
         var file = new MockMultipartFile("file", "hidden.txt", "text/plain", "x".getBytes(UTF_8));
         depotService.put(file, "softdelete", false);
@@ -80,7 +77,7 @@ public class SoftDeleteTests {
     }
 
     @Test
-    @WithMockUser(username = SOFT_DELETE_USER)
+    @WithDepotPrincipal(tenant = "tenant_b")
     public void Soft_delete_collision_appends_suffix() {
         var v1 = new MockMultipartFile("file", "dup.txt", "text/plain", "v1".getBytes(UTF_8));
         depotService.put(v1, "softdelete", false);
@@ -95,7 +92,7 @@ public class SoftDeleteTests {
     }
 
     @Test
-    @WithMockUser(username = SOFT_DELETE_USER)
+    @WithDepotPrincipal(tenant = "tenant_b")
     public void Soft_delete_works_for_folders() {
         var file = new MockMultipartFile("file", "child.txt", "text/plain", "x".getBytes(UTF_8));
         depotService.put(file, "softdelete/folder", false);
@@ -108,14 +105,14 @@ public class SoftDeleteTests {
     }
 
     @Test
-    @WithMockUser(username = SOFT_DELETE_USER)
+    @WithDepotPrincipal(tenant = "tenant_b")
     public void Soft_delete_of_missing_file_is_noop() {
         assertDoesNotThrow(() -> depotService.delete("softdelete/missing.txt"));
         assertFalse(Files.exists(softRealmPath.resolve(".missing.txt")));
     }
 
     @Test
-    @WithMockUser(username = HARD_DELETE_USER)
+    @WithDepotPrincipal(tenant = "tenant_a")
     public void Hard_delete_tenant_removes_file_from_disk() {
         var file = new MockMultipartFile("file", "gone.txt", "text/plain", "x".getBytes(UTF_8));
         depotService.put(file, "softdelete", false);
@@ -0,0 +1,89 @@
+package ch.unibas.medizin.depot.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArchiveReaderTests {
+
+    @Test
+    void readsPaxPathAndGnuLongName() throws IOException {
+        final var tar = new ByteArrayOutputStream();
+        writeEntry(tar, "././@LongLink", 'L', "long/name.txt\0".getBytes(StandardCharsets.US_ASCII));
+        writeEntry(tar, "short", '0', "one".getBytes(StandardCharsets.US_ASCII));
+        writeEntry(tar, "PaxHeader", 'x', "21 path=pax/name.txt\n".getBytes(StandardCharsets.US_ASCII));
+        writeEntry(tar, "short", '0', "two".getBytes(StandardCharsets.US_ASCII));
+        tar.write(new byte[1024]);
+
+        try (final var archiveReader = ArchiveReader.open(new ByteArrayInputStream(tar.toByteArray()))) {
+            assertEquals("long/name.txt", archiveReader.next().name());
+            assertEquals("one", new String(archiveReader.content().readAllBytes(), StandardCharsets.US_ASCII));
+            assertEquals("pax/name.txt", archiveReader.next().name());
+            assertEquals("two", new String(archiveReader.content().readAllBytes(), StandardCharsets.US_ASCII));
+            assertNull(archiveReader.next());
+        }
+    }
+
+    @Test
+    void rejectsOversizedMetadataRecordsBeforeReadingThem() throws IOException {
+        for (final var type : new char[]{'L', 'x'}) {
+            // Claims 8 GiB, but no content follows
+            final var header = header("huge", type, 8L * 1024 * 1024 * 1024);
+            try (final var archiveReader = ArchiveReader.open(new ByteArrayInputStream(header))) {
+                assertThrows(IOException.class, archiveReader::next);
+            }
+        }
+    }
+
+    @Test
+    void rejectsMalformedPaxSize() throws IOException {
+        final var tar = new ByteArrayOutputStream();
+        writeEntry(tar, "PaxHeader", 'x', "12 size=1x\n".getBytes(StandardCharsets.US_ASCII));
+        writeEntry(tar, "file", '0', new byte[0]);
+
+        try (final var archiveReader = ArchiveReader.open(new ByteArrayInputStream(tar.toByteArray()))) {
+            assertThrows(IOException.class, archiveReader::next);
+        }
+    }
+
+    @Test
+    void failsOnEntryCutOffBeforeItsSize() throws IOException {
+        final var tar = new ByteArrayOutputStream();
+        tar.writeBytes(header("cut.txt", '0', 100));
+        tar.writeBytes("only ten b".getBytes(StandardCharsets.US_ASCII));
+
+        try (final var archiveReader = ArchiveReader.open(new ByteArrayInputStream(tar.toByteArray()))) {
+            assertEquals("cut.txt", archiveReader.next().name());
+            assertThrows(EOFException.class, () -> archiveReader.content().readAllBytes());
+        }
+    }
+
+    private static void writeEntry(final ByteArrayOutputStream tar, final String name, final char type, final byte[] content) {
+        tar.writeBytes(header(name, type, content.length));
+        tar.writeBytes(content);
+        tar.writeBytes(new byte[(512 - content.length % 512) % 512]);
+    }
+
+    private static byte[] header(final String name, final char type, final long size) {
+        final var header = new byte[512];
+        final var nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        final var sizeBytes = String.format("%011o", size).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(sizeBytes, 0, header, 124, sizeBytes.length);
+        header[156] = (byte) type;
+        var sum = 0;
+        for (int i = 0; i < 512; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+        }
+        final var checksum = String.format("%06o\0 ", sum).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(checksum, 0, header, 148, checksum.length);
+        return header;
+    }
+
+}
@@ -0,0 +1,71 @@
+package ch.unibas.medizin.depot.util;
+
+import org.apache.commons.codec.digest.MurmurHash3;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IncrementalMurmur3Tests {
+
+    @Test
+    void matchesOneShotHashForAllTailLengths() {
+        final var random = new Random(42);
+        for (int length = 0; length < 100; length++) {
+            final var data = new byte[length];
+            random.nextBytes(data);
+
+            final var hasher = new IncrementalMurmur3();
+            hasher.update(data, 0, data.length);
+
+            assertArrayEquals(MurmurHash3.hash128x64(data), hasher.finish(), "length " + length);
+        }
+    }
+
+    @Test
+    void matchesOneShotHashForArbitrarySlices() {
+        final var random = new Random(7);
+        final var data = new byte[100_003];
+        random.nextBytes(data);
+
+        final var hasher = new IncrementalMurmur3();
+        var offset = 0;
+        while (offset < data.length) {
+            final var count = Math.min(data.length - offset, random.nextInt(37) + 1);
+            if (random.nextBoolean()) {
+                hasher.update(data, offset, count);
+            } else {
+                final var direct = ByteBuffer.allocateDirect(count).put(data, offset, count).flip();
+                hasher.update(direct);
+                assertFalse(direct.hasRemaining());
+            }
+            offset += count;
+        }
+
+        assertEquals(data.length, hasher.length());
+        assertArrayEquals(MurmurHash3.hash128x64(data), hasher.finish());
+    }
+
+    @Test
+    void hashesFileLikeReadAllBytes() throws IOException {
+        final var data = new byte[3 * 256 * 1024 + 11];
+        new Random(1).nextBytes(data);
+        final var file = Files.createTempFile("depot-", ".hash");
+        try {
+            Files.write(file, data);
+            assertArrayEquals(MurmurHash3.hash128x64(data), IncrementalMurmur3.hash(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void toHex() {
+        assertEquals("000000000000000aff00000000000001", IncrementalMurmur3.toHex(new long[]{10L, 0xff00000000000001L}));
+    }
+
+}
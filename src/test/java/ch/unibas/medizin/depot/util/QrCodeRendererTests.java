@@ -0,0 +1,58 @@
+package ch.unibas.medizin.depot.util;
+
+import io.nayuki.qrcodegen.QrCode;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QrCodeRendererTests {
+
+    @Test
+    void pngMatchesModulesPixelByPixel() throws Exception {
+        for (final var text : new String[]{"depot", "http://localhost/#token=" + "x".repeat(300)}) {
+            final var qrCode = QrCode.encodeText(text, QrCode.Ecc.LOW);
+            for (final var scale : new int[]{1, 3, 4}) {
+                final var border = 10;
+                final var image = ImageIO.read(new ByteArrayInputStream(QrCodeRenderer.toPng(qrCode, scale, border)));
+
+                final var width = (qrCode.size + border * 2) * scale;
+                assertEquals(width, image.getWidth());
+                assertEquals(width, image.getHeight());
+                for (int y = 0; y < width; y++) {
+                    for (int x = 0; x < width; x++) {
+                        final var dark = qrCode.getModule(x / scale - border, y / scale - border);
+                        assertEquals(dark ? 0x000000 : 0xFFFFFF, image.getRGB(x, y) & 0xFFFFFF, "scale " + scale + " pixel " + x + "," + y);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void svgIsWellFormedAndCoversEveryDarkModule() throws Exception {
+        final var qrCode = QrCode.encodeText("depot", QrCode.Ecc.LOW);
+        final var svg = QrCodeRenderer.toSvg(qrCode, 4);
+
+        final var document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(svg.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("0 0 " + (qrCode.size + 8) + " " + (qrCode.size + 8), document.getDocumentElement().getAttribute("viewBox"));
+
+        var darkModules = 0;
+        for (int y = 0; y < qrCode.size; y++) {
+            for (int x = 0; x < qrCode.size; x++) {
+                darkModules += qrCode.getModule(x, y) ? 1 : 0;
+            }
+        }
+        var covered = 0;
+        final var path = document.getElementsByTagName("path").item(0).getAttributes().getNamedItem("d").getNodeValue();
+        for (final var segment : path.split("z")) {
+            covered += Integer.parseInt(segment.substring(segment.indexOf('h') + 1, segment.indexOf('v')));
+        }
+        assertEquals(darkModules, covered);
+    }
+
+}